@@ -0,0 +1,120 @@
+package connectK;
+
+/**
+ * Static helpers for the packed board representation used by BoardModel.
+ *
+ * A board is stored as one long[] per player. Cell (x,y) lives at bit
+ * x*(height+1)+y, so every column carries one padding bit above its top row.
+ * The padding bits are always clear, which keeps shifted lines from wrapping
+ * from the top of one column into the bottom of the next.
+ *
+ * The shifts and masks are public so AIs can run their own line analysis on the
+ * boards returned by BoardModel.bitboard().
+ */
+public final class Bitboard {
+	private Bitboard(){}
+
+	//distance between vertically adjacent columns
+	public static int stride(int height){
+		return height + 1;
+	}
+
+	public static int words(int width, int height){
+		return (width * stride(height) + 63) >>> 6;
+	}
+
+	public static int index(int x, int y, int height){
+		return x * stride(height) + y;
+	}
+
+	public static boolean get(long[] b, int i){
+		return (b[i >>> 6] & (1L << i)) != 0;
+	}
+
+	static void set(long[] b, int i){
+		b[i >>> 6] |= 1L << i;
+	}
+
+	static void clear(long[] b, int i){
+		b[i >>> 6] &= ~(1L << i);
+	}
+
+	public static int count(long[] b){
+		int c = 0;
+		for(int i=0; i<b.length; ++i)
+			c += Long.bitCount(b[i]);
+		return c;
+	}
+
+	public static boolean isEmpty(long[] b){
+		for(int i=0; i<b.length; ++i)
+			if(b[i] != 0)
+				return false;
+		return true;
+	}
+
+	//dst = src >>> s across word boundaries; dst may not alias src
+	public static void shiftRight(long[] src, int s, long[] dst){
+		int ws = s >>> 6;
+		int bs = s & 63;
+		for(int i=0; i<dst.length; ++i){
+			long lo = i + ws < src.length ? src[i + ws] : 0;
+			long hi = i + ws + 1 < src.length ? src[i + ws + 1] : 0;
+			dst[i] = bs == 0 ? lo : (lo >>> bs) | (hi << (64 - bs));
+		}
+	}
+
+	//dst = src << s across word boundaries; dst may not alias src
+	public static void shiftLeft(long[] src, int s, long[] dst){
+		int ws = s >>> 6;
+		int bs = s & 63;
+		for(int i=dst.length-1; i>=0; --i){
+			long hi = i - ws >= 0 ? src[i - ws] : 0;
+			long lo = i - ws - 1 >= 0 ? src[i - ws - 1] : 0;
+			dst[i] = bs == 0 ? hi : (hi << bs) | (lo >>> (64 - bs));
+		}
+	}
+
+	//bits for rows from, from+step, ... of every column; rows(w, h, 0, 1) is every cell
+	public static long[] rows(int width, int height, int from, int step){
+		long[] b = new long[words(width, height)];
+		for(int x=0; x<width; ++x)
+			for(int y=from; y<height; y+=step)
+				set(b, index(x, y, height));
+		return b;
+	}
+
+	//true if b holds k consecutive bits spaced s apart
+	static boolean hasRun(long[] b, int s, int k){
+		if(b.length == 1){
+			long m = b[0];
+			for(int i=1; i<k && m != 0; ++i)
+				m &= m >>> s;
+			return m != 0;
+		}
+		if(k <= 1)
+			return !isEmpty(b);
+		long[] m = b.clone();
+		long[] shifted = new long[b.length];
+		for(int i=1; i<k; ++i){
+			shiftRight(m, s, shifted);
+			boolean any = false;
+			for(int w=0; w<m.length; ++w){
+				m[w] &= shifted[w];
+				any |= m[w] != 0;
+			}
+			if(!any)
+				return false;
+		}
+		return true;
+	}
+
+	//true if b holds k in a row in any of the four line directions
+	static boolean hasLine(long[] b, int height, int k){
+		int s = stride(height);
+		return hasRun(b, 1, k) //vertical
+				|| hasRun(b, s, k) //horizontal
+				|| hasRun(b, s + 1, k) //diagonal up
+				|| hasRun(b, s - 1, k); //diagonal down
+	}
+}
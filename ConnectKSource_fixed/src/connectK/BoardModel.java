@@ -13,11 +13,33 @@ public class BoardModel {
 	public int kLength;
 	public boolean gravity;
 	public int spacesLeft;
-	private int hash;
+	//Zobrist key of the board under each symmetry transform; keys[0] is the board as it stands
+	private long[] keys;
+	private long[][] zobristKeys; //shared by all boards of this size
+	private int[][] symmetries; //cell maps from Symmetry, shared by all boards of this shape
 	private byte winner = -2;
 	public java.awt.Point lastMove;//stored as a convenience to AI; not part of state
 	
 	public byte[][] pieces; //[column][row] 1, 2, or null for empty
+	//one packed bitboard per player, kept in step with pieces (see Bitboard for the layout)
+	private long[][] bits;
+	private byte[] cells; //pieces again, flattened to [x*height+y] for LineIndex users
+	private LineIndex lines; //looked up on first use
+	//optional per-window piece counts, see trackWindows(); null until turned on
+	private int[][] windowCounts; //[player-1][window]
+	private int[][] openWindows; //[player-1][n] windows holding n of player's pieces and none of the other's
+	//optional neighbourhood counts, see trackNeighbors(); null until turned on
+	private int[] neighborCounts; //[x*height+y] pieces in the 8 spaces around each space
+	private long[] nearbySpaces; //bit x*height+y set while that space is empty and touches a piece
+	private int[] heights; //pieces in each column
+	private long[] openColumns; //bit x set while column x has an empty space
+	
+	//undo information for makeMove/unmakeMove, allocated on first use
+	private int moveCount;
+	private int[] moveStack; //x*height+y of each move made on this instance
+	private byte[] winnerStack;
+	private Point[] lastMoveStack;
+	private Point[] cellPoints; //lastMove values handed out by makeMove, one per cell
 	
 	BoardModel(int width, int height, int k, boolean gravity){//new board
 		this.width = width;
@@ -25,9 +47,49 @@ public class BoardModel {
 		this.kLength = k;
 		this.gravity = gravity;
 		spacesLeft = width*height;
-		hash = 0;
+		zobristKeys = Zobrist.table(width, height);
+		symmetries = Symmetry.maps(width, height, gravity);
+		keys = new long[symmetries.length];
 
 		pieces = new byte[width][height];
+		bits = new long[2][Bitboard.words(width, height)];
+		cells = new byte[width*height];
+		heights = new int[width];
+		openColumns = new long[(width + 63) >>> 6];
+		if(height > 0)
+			for(int x=0; x<width; ++x)
+				openColumns[x >>> 6] |= 1L << x;
+	}
+	
+	//copy of source for clone(); the Zobrist, symmetry and line tables never change, so they are shared
+	private BoardModel(BoardModel source){
+		width = source.width;
+		height = source.height;
+		kLength = source.kLength;
+		gravity = source.gravity;
+		spacesLeft = source.spacesLeft;
+		winner = source.winner;
+		lastMove = source.lastMove;
+		zobristKeys = source.zobristKeys;
+		symmetries = source.symmetries;
+		lines = source.lines;
+		keys = source.keys.clone();
+		
+		pieces = new byte[width][];
+		for(int i=0; i<width; ++i)
+			pieces[i] = source.pieces[i].clone();
+		bits = new long[][]{source.bits[0].clone(), source.bits[1].clone()};
+		cells = source.cells.clone();
+		heights = source.heights.clone();
+		openColumns = source.openColumns.clone();
+		if(source.windowCounts != null){
+			windowCounts = new int[][]{source.windowCounts[0].clone(), source.windowCounts[1].clone()};
+			openWindows = new int[][]{source.openWindows[0].clone(), source.openWindows[1].clone()};
+		}
+		if(source.neighborCounts != null){
+			neighborCounts = source.neighborCounts.clone();
+			nearbySpaces = source.nearbySpaces.clone();
+		}
 	}
 	
 	//returns a new board with the piece placed
@@ -35,15 +97,162 @@ public class BoardModel {
 		assert (pieces[p.x][p.y] == 0);
 		java.awt.Point move = (Point) p.clone();
 		BoardModel nextBoard = (BoardModel) this.clone();
-		//while gravity is on and there is space under the piece
-		while(gravity && move.y > 0 && pieces[move.x][move.y-1] == 0)
-			--move.y;//drop the piece
+		if(gravity)
+			move.y = heights[move.x];//drop the piece
 		nextBoard.lastMove = move;
-		nextBoard.pieces[move.x][move.y] = player;
-		nextBoard.spacesLeft = spacesLeft - 1;
+		nextBoard.setPiece(move.x, move.y, player);
+		//a game that was still open can only have been won through the new piece
+		if(winner() == -1)
+			nextBoard.winner = nextBoard.completesLine(move.x, move.y, player) ? player
+					: (byte) (nextBoard.hasMovesLeft()? -1: 0);
 		return nextBoard;
 	}
 	
+	/**
+	 * Places a piece on this board instead of a copy, dropping it first when gravity is on.
+	 * Every call must be matched by an unmakeMove() before the board is handed back to anyone
+	 * else; only moves made on this instance can be undone (clones start with an empty history).
+	 */
+	public void makeMove(int x, int y, byte player){
+		assert (pieces[x][y] == 0);
+		if(gravity)
+			y = heights[x];//drop the piece
+		if(moveStack == null){
+			moveStack = new int[width*height];
+			winnerStack = new byte[width*height];
+			lastMoveStack = new Point[width*height];
+			cellPoints = new Point[width*height];
+		}
+		byte previous = winner();
+		int cell = x*height + y;
+		moveStack[moveCount] = cell;
+		winnerStack[moveCount] = previous;
+		lastMoveStack[moveCount] = lastMove;
+		++moveCount;
+		
+		if(cellPoints[cell] == null)
+			cellPoints[cell] = new Point(x, y);
+		lastMove = cellPoints[cell];
+		setPiece(x, y, player);
+		if(previous == -1)
+			winner = completesLine(x, y, player) ? player : (byte) (hasMovesLeft()? -1: 0);
+		else
+			winner = -2;
+	}
+	
+	//takes back the last makeMove
+	public void unmakeMove(){
+		assert (moveCount > 0);
+		--moveCount;
+		int cell = moveStack[moveCount];
+		clearPiece(cell / height, cell % height);
+		winner = winnerStack[moveCount];
+		lastMove = lastMoveStack[moveCount];
+		lastMoveStack[moveCount] = null;
+	}
+	
+	private void setPiece(int x, int y, byte player){
+		pieces[x][y] = player;
+		cells[x*height + y] = player;
+		int i = Bitboard.index(x, y, height);
+		Bitboard.set(bits[player-1], i);
+		toggleKeys(x*height + y, player);
+		--spacesLeft;
+		if(++heights[x] == height)
+			openColumns[x >>> 6] &= ~(1L << x);
+		if(windowCounts != null)
+			countWindows(x*height + y, player, 1);
+		if(neighborCounts != null)
+			countNeighbors(x, y, 1);
+	}
+	
+	private void clearPiece(int x, int y){
+		byte player = pieces[x][y];
+		pieces[x][y] = 0;
+		cells[x*height + y] = 0;
+		int i = Bitboard.index(x, y, height);
+		Bitboard.clear(bits[player-1], i);
+		toggleKeys(x*height + y, player);
+		++spacesLeft;
+		--heights[x];
+		openColumns[x >>> 6] |= 1L << x;
+		if(windowCounts != null)
+			countWindows(x*height + y, player, -1);
+		if(neighborCounts != null)
+			countNeighbors(x, y, -1);
+	}
+	
+	//adds (delta 1) or removes (delta -1) one of player's pieces in every window through cell
+	private void countWindows(int cell, byte player, int delta){
+		int[] mine = windowCounts[player-1];
+		int[] theirs = windowCounts[2-player];
+		int[] myOpen = openWindows[player-1];
+		int[] theirOpen = openWindows[2-player];
+		for(int i=lines.cellWindowStart[cell]; i<lines.cellWindowStart[cell+1]; ++i){
+			int w = lines.cellWindows[i];
+			int before = mine[w];
+			int after = before + delta;
+			mine[w] = after;
+			if(theirs[w] == 0){
+				--myOpen[before];
+				++myOpen[after];
+			}
+			if(before == 0)
+				--theirOpen[theirs[w]];
+			else if(after == 0)
+				++theirOpen[theirs[w]];
+		}
+	}
+	
+	//adds (delta 1) or removes (delta -1) the piece at (x,y) from its neighbours' counts;
+	//cells[] must already hold the space's new contents
+	private void countNeighbors(int x, int y, int delta){
+		for(int i=Math.max(0, x-1); i<=Math.min(width-1, x+1); ++i){
+			for(int j=Math.max(0, y-1); j<=Math.min(height-1, y+1); ++j){
+				if(i == x && j == y)
+					continue;
+				int cell = i*height + j;
+				neighborCounts[cell] += delta;
+				if(cells[cell] == 0 && neighborCounts[cell] > 0)
+					nearbySpaces[cell >>> 6] |= 1L << cell;
+				else
+					nearbySpaces[cell >>> 6] &= ~(1L << cell);
+			}
+		}
+		int cell = x*height + y;
+		if(cells[cell] == 0 && neighborCounts[cell] > 0)
+			nearbySpaces[cell >>> 6] |= 1L << cell;
+		else
+			nearbySpaces[cell >>> 6] &= ~(1L << cell);
+	}
+	
+	private void toggleKeys(int cell, byte player){
+		long[] z = zobristKeys[player-1];
+		for(int t=0; t<keys.length; ++t)
+			keys[t] ^= z[symmetries[t][cell]];
+	}
+	
+	//true if the piece at (x,y) is part of k in a row for player
+	private boolean completesLine(int x, int y, byte player){
+		return runLength(x, y, 1, 0, player) + runLength(x, y, -1, 0, player) >= kLength - 1 //horizontal
+				|| runLength(x, y, 0, 1, player) + runLength(x, y, 0, -1, player) >= kLength - 1 //vertical
+				|| runLength(x, y, 1, 1, player) + runLength(x, y, -1, -1, player) >= kLength - 1 //diagonal up
+				|| runLength(x, y, 1, -1, player) + runLength(x, y, -1, 1, player) >= kLength - 1; //diagonal down
+	}
+	
+	//number of player's pieces directly following (x,y) in direction (dx,dy), capped at k-1
+	private int runLength(int x, int y, int dx, int dy, byte player){
+		int count = 0;
+		x += dx;
+		y += dy;
+		while(count < kLength - 1 && x >= 0 && x < width && y >= 0 && y < height && pieces[x][y] == player){
+			++count;
+			x += dx;
+			y += dy;
+		}
+		return count;
+	}
+	
 	@Deprecated
 	static public BoardModel newBoard(int width, int height, int k, boolean gravity){
 		return new BoardModel(width, height, k, gravity);
@@ -65,6 +274,88 @@ public class BoardModel {
 		return pieces[x][y];
 	}
 	
+	//same as getSpace(cell/height, cell%height)
+	public byte getCell(int cell){
+		return cells[cell];
+	}
+	
+	//the k-length lines of this board's geometry
+	public LineIndex lineIndex(){
+		if(lines == null)
+			lines = LineIndex.of(width, height, kLength);
+		return lines;
+	}
+	
+	/**
+	 * Turns on per-window piece counts for this board and every board made from it.
+	 * Once on, each placement and undo updates the count of both players' pieces in
+	 * every k-length window through the cell, plus the openWindows histograms.
+	 */
+	public void trackWindows(){
+		if(windowCounts != null)
+			return;
+		LineIndex index = lineIndex();
+		windowCounts = new int[2][index.windowCount];
+		openWindows = new int[2][kLength + 1];
+		for(int w=0; w<index.windowCount; ++w){
+			for(int i=w*kLength; i<w*kLength + kLength; ++i){
+				byte space = cells[index.windowCells[i]];
+				if(space != 0)
+					++windowCounts[space-1][w];
+			}
+			if(windowCounts[1][w] == 0)
+				++openWindows[0][windowCounts[0][w]];
+			if(windowCounts[0][w] == 0)
+				++openWindows[1][windowCounts[1][w]];
+		}
+	}
+	
+	public boolean tracksWindows(){
+		return windowCounts != null;
+	}
+	
+	/**
+	 * Turns on neighbourhood tracking for this board and every board made from it.
+	 * Once on, each placement and undo keeps a count of the pieces around every space
+	 * and the set of empty spaces that touch a piece, so move generators can visit
+	 * only those instead of the whole board.
+	 */
+	public void trackNeighbors(){
+		if(neighborCounts != null)
+			return;
+		neighborCounts = new int[width*height];
+		nearbySpaces = new long[(width*height + 63) >>> 6];
+		for(int x=0; x<width; ++x)
+			for(int y=0; y<height; ++y)
+				if(cells[x*height + y] != 0)
+					countNeighbors(x, y, 1);
+	}
+	
+	public boolean tracksNeighbors(){
+		return neighborCounts != null;
+	}
+	
+	//pieces in the 8 spaces around space x*height+y; needs trackNeighbors()
+	public int neighborCount(int cell){
+		return neighborCounts[cell];
+	}
+	
+	//bit x*height+y (of word cell/64) is set while that space is empty and touches a piece;
+	//needs trackNeighbors(), shared with the board, do not modify
+	public long[] nearbySpaces(){
+		return nearbySpaces;
+	}
+	
+	//pieces player has in each window of lineIndex(); needs trackWindows(), shared with the board, do not modify
+	public int[] windowCounts(byte player){
+		return windowCounts[player-1];
+	}
+	
+	//number of windows holding exactly n of player's pieces and none of the other player's; needs trackWindows()
+	public int openWindows(byte player, int n){
+		return openWindows[player-1][n];
+	}
+	
 	public int getWidth() {
 		return width;
 	}
@@ -89,140 +380,93 @@ public class BoardModel {
 		return spacesLeft > 0;
 	}
 	
+	//true if player would have k in a row after placing a piece on the empty space (x,y);
+	//gravity is not applied, so with gravity on (x,y) should be a column's landing space
+	public boolean wouldWin(int x, int y, byte player){
+		return completesLine(x, y, player);
+	}
+	
+	//64-bit Zobrist key of the pieces on the board, updated on every placement;
+	//boards of the same width and height share key tables, so equal positions have equal keys
+	public long zobristKey(){
+		return keys[0];
+	}
+	
+	//number of symmetry transforms that map legal positions of this board onto each other:
+	//2 with gravity (left-right mirror), 8 for a square board without gravity, 4 otherwise
+	public int symmetryCount(){
+		return keys.length;
+	}
+	
+	//smallest Zobrist key over all symmetric images of the board;
+	//positions that are mirror images or rotations of each other share it
+	public long canonicalKey(){
+		return keys[canonicalTransform()];
+	}
+	
+	//the transform that takes this board to the orientation canonicalKey() describes
+	public int canonicalTransform(){
+		int best = 0;
+		for(int t=1; t<keys.length; ++t)
+			if(keys[t] < keys[best])
+				best = t;
+		return best;
+	}
+	
+	//maps cell x*height+y of this board to the same cell in the canonical orientation
+	public int toCanonical(int cell){
+		return symmetries[canonicalTransform()][cell];
+	}
+	
+	//maps cell x*height+y of the canonical orientation back onto this board
+	public int fromCanonical(int cell){
+		return symmetries[Symmetry.inverse(canonicalTransform())][cell];
+	}
+	
+	//number of pieces in column x; with gravity on this is also the row the next piece dropped there lands on
+	public int columnHeight(int x){
+		return heights[x];
+	}
+	
+	//bit x (of word x/64) is set while column x has an empty space, so with gravity on it is
+	//the set of legal moves; shared with the board, do not modify
+	public long[] openColumns(){
+		return openColumns;
+	}
+	
+	//packed stones of player (1|2), space (x,y) at bit x*(height+1)+y; shared with the board, do not modify
+	public long[] bitboard(byte player){
+		return bits[player-1];
+	}
+	
 	//returns winner (1|2) if there is one, 0 if draw, else -1
 	public byte winner(){
-		uncached: if(winner == -2){
-			for(int i=0; i<width; ++i){
-				for(int j=0; j<height; ++j){
-					//if the space previous is either not the same as current, empty, or OOB
-					//while the next thing is the same AND not OOB
-					//increment contiguous count
-					//if count greater than k, return the winner
-					//returns on first winning sequence found
-					//searches to the right and up
-
-					if(pieces[i][j] == 0){
-						if(gravity)
-							break;//go to next column
-						else
-							continue;//move up
-					}
-
-					if(i-1<0 || pieces[i-1][j] != pieces[i][j]){ //horizontal
-						int count = 1;
-						while(i+count < width && pieces[i][j] == pieces[i+count][j]){
-							++count;
-							if(count >= kLength){
-								winner = pieces[i][j];
-								break uncached;
-							}
-						}
-					}
-
-					if(i-1<0 || j-1<0 || pieces[i-1][j-1] != pieces[i][j]){ //diagonal, (j-1<0) needed to avoid OOB
-						int count = 1;
-						while(i+count < width && j+count < height && pieces[i][j] == pieces[i+count][j+count]){
-							++count;
-							if(count >= kLength){
-								winner = pieces[i][j];
-								break uncached;
-							}
-						}
-					}
-
-					if(i-1<0 || j+1>=height || pieces[i-1][j+1] != pieces[i][j]){ //diagonal, (j+1>=height) needed to avoid OOB
-						int count = 1;
-						while(i+count < width && j-count >= 0 && pieces[i][j] == pieces[i+count][j-count]){
-							++count;
-							if(count >= kLength){
-								winner = pieces[i][j];
-								break uncached;
-							}
-						}
-					}
-
-					if(j-1<0 || pieces[i][j-1] != pieces[i][j]){ //vertical
-						int count = 1;
-						while(j+count < height && pieces[i][j] == pieces[i][j+count]){
-							++count;
-							if(count >= kLength){
-								winner = pieces[i][j];
-								break uncached;
-							}
-						}
-					}
-				}
-			}
-			winner = (byte) (hasMovesLeft()? -1: 0);
+		if(winner == -2){
+			if(Bitboard.hasLine(bits[0], height, kLength))
+				winner = 1;
+			else if(Bitboard.hasLine(bits[1], height, kLength))
+				winner = 2;
+			else
+				winner = (byte) (hasMovesLeft()? -1: 0);
 		}
 		return winner;
 	}
 	
 	List<Point> winningSpaces(){
 		List<Point> ws = new ArrayList<Point>(kLength);
-		for(int i=0; i<width; ++i){
-			for(int j=0; j<height; ++j){
-				//if the space previous is either not the same as current, empty, or OOB
-					//while the next thing is the same AND not OOB
-						//increment contiguous count
-							//if count greater than k, return the winner
-				//returns on first winning sequence found
-				//searches to the right and up
-				
-				if(pieces[i][j] == 0){
-					if(gravity)
-						break;//go to next column
-					else
-						continue;//move up
-				}
-				
-				if(i-1<0 || pieces[i-1][j] != pieces[i][j]){ //horizontal
-					int count = 1;
-					while(i+count < width && pieces[i][j] == pieces[i+count][j]){
-						++count;
-						if(count >= kLength){
-							for(int k=0; k<kLength; ++k)
-								ws.add(new Point(i+k,j));
-							return ws;
-						}
-					}
-				}
-				
-				if(i-1<0 || j-1<0 || pieces[i-1][j-1] != pieces[i][j]){ //diagonal up, (j-1<0) needed to avoid OOB
-					int count = 1;
-					while(i+count < width && j+count < height && pieces[i][j] == pieces[i+count][j+count]){
-						++count;
-						if(count >= kLength){
-							for(int k=0; k<kLength; ++k)
-								ws.add(new Point(i+k,j+k));
-							return ws;
-						}
-					}
-				}
-				
-				if(i-1<0 || j+1>=height || pieces[i-1][j+1] != pieces[i][j]){ //diagonal down, (j+1>=height) needed to avoid OOB
-					int count = 1;
-					while(i+count < width && j-count >= 0 && pieces[i][j] == pieces[i+count][j-count]){
-						++count;
-						if(count >= kLength){
-							for(int k=0; k<kLength; ++k)
-								ws.add(new Point(i+k,j-k));
-							return ws;
-						}
-					}
-				}
-				
-				if(j-1<0 || pieces[i][j-1] != pieces[i][j]){ //vertical
-					int count = 1;
-					while(j+count < height && pieces[i][j] == pieces[i][j+count]){
-						++count;
-						if(count >= kLength){
-							for(int k=0; k<kLength; ++k)
-								ws.add(new Point(i,j+k));
-							return ws;
-						}
-					}
+		LineIndex index = lineIndex();
+		//returns the first window found that one player fills completely
+		for(int w=0; w<index.windowCount; ++w){
+			byte owner = cells[index.first(w)];
+			int count = 0;
+			while(owner != 0 && count < kLength && cells[index.windowCells[w*kLength + count]] == owner)
+				++count;
+			if(owner != 0 && count == kLength){
+				for(int i=0; i<kLength; ++i){
+					int cell = index.windowCells[w*kLength + i];
+					ws.add(new Point(cell / height, cell % height));
 				}
+				return ws;
 			}
 		}
 		return ws;
@@ -242,13 +486,7 @@ public class BoardModel {
 	
 	@Override
 	public BoardModel clone(){
-		BoardModel cloned = new BoardModel(width, height, kLength, gravity);  
-		cloned.lastMove = this.lastMove;
-		cloned.spacesLeft = this.spacesLeft;
-		for(int i=0; i<width; ++i)
-			for(int j=0; j<height; ++j)
-				cloned.pieces[i][j] = this.pieces[i][j];
-		return cloned;
+		return new BoardModel(this);
 	}
 	
 	//two games are equal if their shape, rules, and pieces are equal; last move does not matter
@@ -259,21 +497,14 @@ public class BoardModel {
 		BoardModel b = (BoardModel) o;
 		if(this.width != b.width || this.height != b.height || this.kLength != b.kLength || this.gravity != b.gravity)
 			return false;
-		for(int i=0; i<width; ++i)
-			for(int j=0; j<height; ++j)
-				if(this.pieces[i][j] != b.pieces[i][j])
-					return false;
-		return true;
+		return Arrays.equals(this.bits[0], b.bits[0]) && Arrays.equals(this.bits[1], b.bits[1]);
 	}
 	
-	//hashCode operates on the same variables as equals()
+	//hashCode operates on the same variables as equals(); it is kept up to date as pieces are placed
 	@Override
 	public int hashCode(){
-		if(hash == 0){
-			hash = gravity ? 1 : 0;
-			hash ^= width ^ height ^ kLength;
-			hash ^= Arrays.deepHashCode(pieces);
-		}
-		return hash;
+		int hash = gravity ? 1 : 0;
+		hash ^= width ^ height ^ kLength;
+		return hash ^ (int) (keys[0] ^ (keys[0] >>> 32));
 	}
 }
\ No newline at end of file
@@ -0,0 +1,108 @@
+package connectK;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Every line of k spaces (a "window") that fits on a board, precomputed once per
+ * (width, height, k) and shared by all boards and threads of that geometry.
+ *
+ * Cells are numbered x*height+y, the same numbering getCell() uses. The arrays
+ * are public so evaluators can walk them directly; they must not be modified.
+ */
+public final class LineIndex {
+	public static final int HORIZONTAL = 0;
+	public static final int VERTICAL = 1;
+	public static final int DIAGONAL_UP = 2; //towards +x,+y
+	public static final int DIAGONAL_DOWN = 3; //towards +x,-y
+
+	private static final ConcurrentHashMap<Long, LineIndex> indexes = new ConcurrentHashMap<Long, LineIndex>();
+
+	public final int width;
+	public final int height;
+	public final int k;
+	public final int windowCount;
+	//cells of window w in order along the line: windowCells[w*k] .. windowCells[w*k+k-1]
+	public final int[] windowCells;
+	//HORIZONTAL, VERTICAL, DIAGONAL_UP or DIAGONAL_DOWN for each window
+	public final byte[] windowDirections;
+	//windows containing cell c: cellWindows[cellWindowStart[c]] .. cellWindows[cellWindowStart[c+1]-1]
+	public final int[] cellWindowStart;
+	public final int[] cellWindows;
+
+	public static LineIndex of(int width, int height, int k){
+		Long geometry = ((long) width << 42) | ((long) height << 21) | k;
+		LineIndex index = indexes.get(geometry);
+		if(index == null){
+			index = new LineIndex(width, height, k);
+			LineIndex raced = indexes.putIfAbsent(geometry, index);
+			if(raced != null)
+				index = raced;
+		}
+		return index;
+	}
+
+	private LineIndex(int width, int height, int k){
+		this.width = width;
+		this.height = height;
+		this.k = k;
+		int[][] steps = {{1, 0}, {0, 1}, {1, 1}, {1, -1}};
+
+		int count = 0;
+		for(int d=0; d<steps.length; ++d)
+			count += starts(steps[d], width, height, k, null, 0);
+		windowCount = count;
+		windowCells = new int[count * k];
+		windowDirections = new byte[count];
+
+		int w = 0;
+		for(int d=0; d<steps.length; ++d){
+			int added = starts(steps[d], width, height, k, windowCells, w);
+			for(int i=0; i<added; ++i)
+				windowDirections[w + i] = (byte) d;
+			w += added;
+		}
+
+		//reverse map, built as a counting sort of (cell, window) pairs
+		cellWindowStart = new int[width*height + 1];
+		for(int i=0; i<windowCells.length; ++i)
+			++cellWindowStart[windowCells[i] + 1];
+		for(int c=0; c<width*height; ++c)
+			cellWindowStart[c + 1] += cellWindowStart[c];
+		cellWindows = new int[windowCells.length];
+		int[] fill = new int[width*height];
+		for(int i=0; i<windowCells.length; ++i){
+			int c = windowCells[i];
+			cellWindows[cellWindowStart[c] + fill[c]++] = i / k;
+		}
+	}
+
+	//writes the cells of every window in direction step (when cells != null) and returns how many there are
+	private static int starts(int[] step, int width, int height, int k, int[] cells, int firstWindow){
+		if(k < 1)
+			return 0;
+		int w = firstWindow;
+		for(int x=0; x<width; ++x){
+			for(int y=0; y<height; ++y){
+				int endX = x + step[0]*(k-1);
+				int endY = y + step[1]*(k-1);
+				if(endX < 0 || endX >= width || endY < 0 || endY >= height)
+					continue;
+				if(cells != null)
+					for(int i=0; i<k; ++i)
+						cells[w*k + i] = (x + step[0]*i)*height + (y + step[1]*i);
+				++w;
+			}
+		}
+		return w - firstWindow;
+	}
+
+	//first cell of window w
+	public int first(int w){
+		return windowCells[w*k];
+	}
+
+	//last cell of window w
+	public int last(int w){
+		return windowCells[w*k + k - 1];
+	}
+}
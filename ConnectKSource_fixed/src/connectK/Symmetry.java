@@ -0,0 +1,62 @@
+package connectK;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Cell permutations for the symmetries of a board, indexed by transform number.
+ *
+ * With gravity on only the left-right mirror keeps positions legal. With gravity
+ * off a rectangular board can also be flipped top to bottom and turned half way,
+ * and a square board has all eight rotations and reflections.
+ *
+ * 0 identity, 1 mirror left-right, 2 mirror top-bottom, 3 half turn,
+ * 4 transpose, 5 quarter turn, 6 three-quarter turn, 7 anti-transpose.
+ * Cells are numbered x*height+y.
+ */
+final class Symmetry {
+	private static final ConcurrentHashMap<Long, int[][]> maps = new ConcurrentHashMap<Long, int[][]>();
+	
+	private Symmetry(){}
+	
+	//[transform][cell] -> cell the piece lands on after the transform
+	static int[][] maps(int width, int height, boolean gravity){
+		Long shape = ((long) width << 33) | ((long) height << 1) | (gravity ? 1 : 0);
+		int[][] m = maps.get(shape);
+		if(m == null){
+			m = build(width, height, gravity);
+			int[][] raced = maps.putIfAbsent(shape, m);
+			if(raced != null)
+				m = raced;
+		}
+		return m;
+	}
+	
+	static int inverse(int transform){
+		return transform == 5 ? 6 : transform == 6 ? 5 : transform;
+	}
+	
+	private static int[][] build(int width, int height, boolean gravity){
+		int order = gravity ? 2 : width == height ? 8 : 4;
+		int[][] m = new int[order][width*height];
+		for(int x=0; x<width; ++x){
+			for(int y=0; y<height; ++y){
+				int cell = x*height + y;
+				int rx = width-1-x;
+				int ry = height-1-y;
+				m[0][cell] = cell;
+				m[1][cell] = rx*height + y;
+				if(order > 2){
+					m[2][cell] = x*height + ry;
+					m[3][cell] = rx*height + ry;
+				}
+				if(order > 4){//square, so height == width
+					m[4][cell] = y*height + x;
+					m[5][cell] = ry*height + x;
+					m[6][cell] = y*height + rx;
+					m[7][cell] = ry*height + rx;
+				}
+			}
+		}
+		return m;
+	}
+}
@@ -0,0 +1,38 @@
+package connectK;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Random keys for Zobrist hashing, one per (player, cell).
+ *
+ * Tables are shared by every board with the same width and height. They are
+ * seeded from the board size, so a position gets the same key in every run.
+ */
+final class Zobrist {
+	private static final ConcurrentHashMap<Long, long[][]> tables = new ConcurrentHashMap<Long, long[][]>();
+	
+	private Zobrist(){}
+	
+	//[player-1][x*height+y]
+	static long[][] table(int width, int height){
+		Long size = ((long) width << 32) | height;
+		long[][] t = tables.get(size);
+		if(t == null){
+			t = build(width, height);
+			long[][] raced = tables.putIfAbsent(size, t);
+			if(raced != null)
+				t = raced;
+		}
+		return t;
+	}
+	
+	private static long[][] build(int width, int height){
+		SplittableRandom random = new SplittableRandom(0x436F6E6E6563744BL ^ ((long) width << 32) ^ height);
+		long[][] t = new long[2][width*height];
+		for(int p=0; p<2; ++p)
+			for(int i=0; i<t[p].length; ++i)
+				t[p][i] = random.nextLong();
+		return t;
+	}
+}
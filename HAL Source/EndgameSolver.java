@@ -0,0 +1,350 @@
+import connectK.BoardModel;
+import java.awt.Point;
+
+/**
+ * Exact win/loss/draw search for positions with few empty spaces left.
+ *
+ * No heuristic is used: every line is followed until a player wins or the board
+ * fills up, so each position has one of three values for the side to move. With
+ * only three values almost every window is a proof window: once a win is found the
+ * rest of the moves are skipped, and once a draw is found only wins are searched for.
+ * Immediate wins are taken and single forced blocks are the only move tried; two
+ * threats that cannot both be blocked are a loss without further search. Solved
+ * positions go into a transposition table of their own, since their values are exact
+ * at any depth and stay valid for the rest of the game.
+ *
+ * When the position is lost, the move returned is the one that holds out longest.
+ * The moves are searched again with a horizon, two plies deeper each time, keeping
+ * those the opponent cannot yet win against; the last move kept is played. These
+ * searches stop at the horizon, so their values are not exact and stay out of the
+ * table.
+ */
+public class EndgameSolver {
+
+	public static final int WIN = 1;
+	public static final int DRAW = 0;
+	public static final int LOSS = -1;
+
+	//returned when the clock stops before the position is solved
+	private static final int UNKNOWN = Integer.MIN_VALUE;
+	//horizon of the exact search
+	private static final int NO_HORIZON = Integer.MAX_VALUE;
+
+	private final TranspositionTable table;
+	private final SearchClock clock;
+
+	//move lists, one per ply, and the cells in the order they are tried
+	private int[][] moves;
+	private int[] order;
+	private int value;
+	//plies from the root after which search gives up on a line and calls it a draw
+	private int horizon = NO_HORIZON;
+
+	/**
+	 * Constructor
+	 * @param megabytes memory for the solver's transposition table
+	 * @param safetyMargin how many milliseconds before its deadline the solver gives up
+	 */
+	public EndgameSolver(int megabytes, int safetyMargin)
+	{
+		table = new TranspositionTable(megabytes);
+		clock = new SearchClock(safetyMargin);
+	}
+
+	/**
+	 * Solves a position.
+	 * @param state state of the game board; returned unchanged
+	 * @param player player to move
+	 * @param deadline how much time in milliseconds the solver may take
+	 * @param start time when the move was asked for
+	 * @return the best move, which in a lost position is the one that holds out longest, 
+	 * or null if the position could not be solved in time
+	 */
+	public Point solve(BoardModel state, byte player, int deadline, long start)
+	{
+		clock.start(deadline, start);
+		table.newSearch();
+		int cells = state.getWidth() * state.getHeight();
+		if (moves == null || order.length != cells)
+		{
+			moves = new int[cells + 1][cells];
+			order = centerOut(state);
+		}
+
+		int height = state.getHeight();
+		byte other = (byte)(player == 1 ? 2 : 1);
+		int[] list = moves[0];
+		int n = generate(state, list);
+		for (int i = 0; i < n; ++i)
+		{
+			if (state.wouldWin(list[i] / height, list[i] % height, player))
+			{
+				value = WIN;
+				clock.stop();
+				return new Point(list[i] / height, list[i] % height);
+			}
+		}
+
+		int best = UNKNOWN;
+		int bestMove = -1;
+		int alpha = LOSS;
+		for (int i = 0; i < n && best != WIN; ++i)
+		{
+			state.makeMove(list[i] / height, list[i] % height, player);
+			int v = DRAW;
+			if (state.hasMovesLeft())
+			{
+				v = search(state, other, -WIN, -alpha, 1);
+				if (v != UNKNOWN)
+					v = -v;
+			}
+			state.unmakeMove();
+			if (v == UNKNOWN)
+			{
+				clock.stop();
+				return null;
+			}
+
+			if (v > best)
+			{
+				best = v;
+				bestMove = list[i];
+			}
+			alpha = Math.max(alpha, best);
+		}
+		if (best == LOSS)
+			bestMove = delayLoss(state, player, list, n, bestMove);
+		clock.stop();
+
+		value = best;
+		return bestMove < 0 ? null : new Point(bestMove / height, bestMove % height);
+	}
+
+	/**
+	 * Finds the move in a lost position that puts the loss off longest.
+	 * @param state state of the game board; returned unchanged
+	 * @param player player to move, who loses
+	 * @param list the moves at the root; reordered
+	 * @param n number of moves in list
+	 * @param fallback move to return if no horizon is searched in time
+	 * @return the move that holds out to the deepest horizon searched
+	 */
+	private int delayLoss(BoardModel state, byte player, int[] list, int n, int fallback)
+	{
+		int height = state.getHeight();
+		byte other = (byte)(player == 1 ? 2 : 1);
+		int best = fallback;
+		//the opponent's moves are the even plies, so each horizon allows it one more
+		for (horizon = 2; horizon <= state.spacesLeft + 1 && n > 0; horizon += 2)
+		{
+			int kept = 0;
+			for (int i = 0; i < n; ++i)
+			{
+				state.makeMove(list[i] / height, list[i] % height, player);
+				int v = DRAW;
+				if (state.hasMovesLeft())
+				{
+					v = search(state, other, DRAW, WIN, 1);
+					if (v != UNKNOWN)
+						v = -v;
+				}
+				state.unmakeMove();
+				if (v == UNKNOWN)
+				{
+					horizon = NO_HORIZON;
+					return best;
+				}
+				if (v != LOSS)
+					list[kept++] = list[i];
+			}
+			if (kept > 0)
+				best = list[0];
+			n = kept;
+		}
+		horizon = NO_HORIZON;
+		return best;
+	}
+
+	/**
+	 * @return WIN, DRAW or LOSS for the side to move in the position last solved
+	 */
+	public int value()
+	{
+		return value;
+	}
+
+	private int search(BoardModel state, byte side, int alpha, int beta, int ply)
+	{
+		if (clock.isStopped())
+			return UNKNOWN;
+		if (ply >= horizon)
+			return DRAW;
+
+		int height = state.getHeight();
+		byte other = (byte)(side == 1 ? 2 : 1);
+		int[] list = moves[ply];
+		int n = generate(state, list);
+
+		int forced = -1;
+		for (int i = 0; i < n; ++i)
+		{
+			int x = list[i] / height;
+			int y = list[i] % height;
+			if (state.wouldWin(x, y, side))
+				return WIN;
+			if (state.wouldWin(x, y, other))
+			{
+				if (forced >= 0)
+					forced = -2;
+				else if (forced == -1)
+					forced = i;
+			}
+		}
+		//two spaces the other side wins on next move, only one of which can be blocked
+		if (forced == -2 && ply + 1 < horizon)
+			return LOSS;
+		if (forced >= 0)
+		{
+			list[0] = list[forced];
+			n = 1;
+		}
+
+		long key = state.canonicalKey();
+		long entry = horizon == NO_HORIZON ? table.probe(key) : 0;
+		if (entry != 0)
+		{
+			int score = TranspositionTable.score(entry);
+			int bound = TranspositionTable.bound(entry);
+			if (bound == TranspositionTable.EXACT
+					|| (bound == TranspositionTable.LOWER && score >= beta)
+					|| (bound == TranspositionTable.UPPER && score <= alpha))
+				return score;
+			if (bound == TranspositionTable.LOWER)
+				alpha = Math.max(alpha, score);
+			else
+				beta = Math.min(beta, score);
+			if (n > 1)
+				toFront(list, n, TranspositionTable.move(entry), state);
+		}
+
+		int alphaOrig = alpha;
+		int best = LOSS - 1;
+		int bestMove = TranspositionTable.NO_MOVE;
+		for (int i = 0; i < n; ++i)
+		{
+			state.makeMove(list[i] / height, list[i] % height, side);
+			int v;
+			if (!state.hasMovesLeft())
+				v = DRAW;
+			else
+			{
+				v = search(state, other, -beta, -alpha, ply + 1);
+				if (v == UNKNOWN)
+				{
+					state.unmakeMove();
+					return UNKNOWN;
+				}
+				v = -v;
+			}
+			state.unmakeMove();
+
+			if (v > best)
+			{
+				best = v;
+				bestMove = list[i];
+			}
+			alpha = Math.max(alpha, best);
+			if (alpha >= beta)
+				break;
+		}
+
+		int bound = TranspositionTable.EXACT;
+		if (best <= alphaOrig)
+			bound = TranspositionTable.UPPER;
+		else if (best >= beta)
+			bound = TranspositionTable.LOWER;
+		if (horizon == NO_HORIZON)
+			table.store(key, state.spacesLeft, best, bound, state.toCanonical(bestMove));
+		return best;
+	}
+
+	//fills list with the playable cells in center-out order and returns how many there are
+	private int generate(BoardModel state, int[] list)
+	{
+		int n = 0;
+		if (state.gravity)
+		{
+			int height = state.getHeight();
+			for (int i = 0; i < order.length; i += height)
+			{
+				int x = order[i] / height;
+				if (state.columnHeight(x) < height)
+					list[n++] = x * height + state.columnHeight(x);
+			}
+		}
+		else
+		{
+			for (int i = 0; i < order.length; ++i)
+				if (state.getCell(order[i]) == 0)
+					list[n++] = order[i];
+		}
+		return n;
+	}
+
+	//moves the remembered move, given in canonical orientation, to the front of the list
+	private void toFront(int[] list, int n, int move, BoardModel state)
+	{
+		if (move == TranspositionTable.NO_MOVE)
+			return;
+		move = state.fromCanonical(move);
+		for (int i = 1; i < n; ++i)
+		{
+			if (list[i] == move)
+			{
+				for (int j = i; j > 0; --j)
+					list[j] = list[j - 1];
+				list[0] = move;
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Orders every cell by distance from the center of the board. With gravity on, the
+	 * cells of each column are kept together, so stepping through the order one column
+	 * height at a time visits the columns center-out.
+	 * @param state state of the game board
+	 * @return cells (x * height + y), closest to the center first
+	 */
+	private static int[] centerOut(BoardModel state)
+	{
+		final int width = state.getWidth();
+		final int height = state.getHeight();
+		Integer[] cells = new Integer[width * height];
+		for (int i = 0; i < cells.length; ++i)
+			cells[i] = i;
+
+		final boolean gravity = state.gravity;
+		java.util.Arrays.sort(cells, new java.util.Comparator<Integer>() {
+			@Override
+			public int compare(Integer a, Integer b)
+			{
+				return Double.compare(distance(a), distance(b));
+			}
+
+			private double distance(int cell)
+			{
+				double dx = cell / height - (width - 1) / 2.0;
+				double dy = cell % height - (height - 1) / 2.0;
+				if (gravity)
+					return (Math.abs(dx) * 2 + (dx > 0 ? 1 : 0)) * height + cell % height;
+				return dx * dx + dy * dy;
+			}
+		});
+
+		int[] order = new int[cells.length];
+		for (int i = 0; i < cells.length; ++i)
+			order[i] = cells[i];
+		return order;
+	}
+}
@@ -0,0 +1,96 @@
+/**
+ * Fixed-size cache of heuristic scores, so a leaf position seen again in a later
+ * iteration or through a transposition is scored with one table probe.
+ *
+ * The cache is split into buckets of two slots and is kept in two parallel arrays,
+ * so it creates no objects after construction. A new score goes into the first slot
+ * of its bucket and the score there moves to the second, so each bucket keeps the
+ * two scores stored in it most recently.
+ *
+ * Like TranspositionTable, each slot stores key ^ data next to data, so the cache
+ * may be shared by several search threads without locking: a slot torn by two
+ * threads writing at once reads as a miss. The hit and miss counters are not
+ * synchronized and are only approximate while several threads use the cache.
+ */
+public class EvalCache {
+
+	private final long[] keys;
+	private final long[] data;
+	private final int bucketMask;
+	private long hits;
+	private long misses;
+
+	/**
+	 * Constructor
+	 * @param entries number of scores kept; rounded down to a power of two
+	 */
+	public EvalCache(int entries)
+	{
+		int buckets = Integer.highestOneBit(Math.max(2, entries) / 2);
+		keys = new long[buckets * 2];
+		data = new long[buckets * 2];
+		bucketMask = buckets - 1;
+	}
+
+	/**
+	 * Looks up a position, counting a hit or a miss.
+	 * @param key canonical key of the position
+	 * @return packed entry for the position, or 0 if it is not in the cache
+	 */
+	public long probe(long key)
+	{
+		int slot = ((int) key & bucketMask) << 1;
+		for (int i = slot; i < slot + 2; ++i)
+		{
+			long entry = data[i];
+			if (entry != 0 && (keys[i] ^ entry) == key)
+			{
+				++hits;
+				return entry;
+			}
+		}
+		++misses;
+		return 0;
+	}
+
+	/**
+	 * @param entry packed entry returned by probe
+	 * @return score of the entry
+	 */
+	public static int score(long entry)
+	{
+		return (int) entry;
+	}
+
+	/**
+	 * Records the score of a position.
+	 * @param key canonical key of the position
+	 * @param score heuristic score of the position
+	 */
+	public void store(long key, int score)
+	{
+		int slot = ((int) key & bucketMask) << 1;
+		//bit 32 marks the slot as used, so a score of 0 is not mistaken for an empty slot
+		long packed = (score & 0xFFFFFFFFL) | (1L << 32);
+		keys[slot + 1] = keys[slot];
+		data[slot + 1] = data[slot];
+		keys[slot] = key ^ packed;
+		data[slot] = packed;
+	}
+
+	/**
+	 * @return number of probes that found their position
+	 */
+	public long hits()
+	{
+		return hits;
+	}
+
+	/**
+	 * @return number of probes that did not find their position
+	 */
+	public long misses()
+	{
+		return misses;
+	}
+}
@@ -1,6 +1,18 @@
 import connectK.CKPlayer;
 import connectK.BoardModel;
+import connectK.LineIndex;
 import java.awt.Point;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
 This is a Connect-K AI program designed to play Connect-K intelligently 
@@ -19,6 +31,121 @@ public class HALAI extends CKPlayer {
 	private final int POSITIVE_INFINITY = 100000;
 	private final int NEGATIVE_INFINITY = -100000;
 	private final int CANCEL_VAL = -111111;
+	//half width of the window each iteration after the first starts with, around the last score
+	private final int ASPIRATION_WINDOW = 50;
+	//plies the search may go past its depth to play out wins and forced blocks, 
+	//overridable with -Dhal.quiescencePlies=<n>; 0 scores every leaf as it stands
+	private final int QUIESCENCE_PLIES = Integer.getInteger("hal.quiescencePlies", 6);
+	
+	//memory for the transposition table, overridable with -Dhal.tableMegabytes=<n>
+	private final int TABLE_MEGABYTES = Integer.getInteger("hal.tableMegabytes", 32);
+	
+	//remembers searched positions across iterations and across moves of the same game
+	private TranspositionTable table;
+	
+	//heuristic scores of leaf positions, overridable with -Dhal.evalCacheEntries=<n>; 0 turns it off
+	private final int EVAL_CACHE_ENTRIES = Integer.getInteger("hal.evalCacheEntries", 1 << 16);
+	private EvalCache evalCache;
+	
+	//search threads, overridable with -Dhal.threads=<n>; 1 searches on the caller's thread only
+	private final int THREADS = Math.max(1, Integer.getInteger("hal.threads", 1));
+	//how extra threads are used: root moves split between them by default, 
+	//or independent deepening loops sharing the transposition table with -Dhal.search=lazy
+	private final boolean LAZY_SMP = "lazy".equals(System.getProperty("hal.search"));
+	private ForkJoinPool pool;
+	
+	//Lazy SMP helpers and their running searches
+	private HALAI[] lazyHelpers;
+	private Future<?>[] lazyRuns;
+	
+	//milliseconds before the deadline a search stops, overridable with -Dhal.safetyMargin=<n>
+	private final int SAFETY_MARGIN = Integer.getInteger("hal.safetyMargin", 50);
+	
+	//tells the search when to stop; shared with every helper searching the same move
+	private SearchClock clock = new SearchClock(SAFETY_MARGIN);
+	
+	//keep searching on the opponent's time, turned on with -Dhal.ponder=true
+	private final boolean PONDER = Boolean.getBoolean("hal.ponder");
+	//a ponder search stops by itself after this many of our own move deadlines, so it cannot 
+	//run on if the game ends or no further move is asked for
+	private final int PONDER_DEADLINES = 2;
+	
+	//opening book file built by OpeningBook, used when -Dhal.book=<path> is given
+	private final String BOOK_PATH = System.getProperty("hal.book");
+	private OpeningBook book;
+	private boolean bookOpened;
+	
+	//empty spaces at or below which the game is solved exactly, overridable with -Dhal.endgameSpaces=<n>
+	private final int ENDGAME_SPACES = Integer.getInteger("hal.endgameSpaces", 16);
+	private EndgameSolver solver;
+	
+	//most attacking moves a forced win found by threat search may take without gravity, 
+	//overridable with -Dhal.threatDepth=<n>
+	private final int THREAT_DEPTH = Integer.getInteger("hal.threatDepth", 8);
+	private final int THREAT_CACHE_ENTRIES = 1 << 18;
+	private ThreatSearch threats;
+	
+	//background search of the position expected after the opponent's reply
+	private HALAI ponderer;
+	private FutureTask<Point> ponderRun;
+	private BoardModel ponderBoard;
+	private Point ponderReply;
+	//depth the next alphaBetaDeepening starts at, after a ponder hit has searched the ones before
+	private int resumeDepth;
+	
+	//move ordering learned while searching, indexed by cell (x * height + y): 
+	//two killer moves per ply and a history score per player
+	private int[][] killers;
+	private int[][] history;
+	//depth of the iteration being searched, so a node's ply is rootLimit - limit
+	private int rootLimit;
+	//best root move of the last completed iteration, searched first by the next one
+	private int pvMove = TranspositionTable.NO_MOVE;
+	//depth of the last iteration deepen finished
+	private int finishedDepth;
+	
+	//move list and ordering scores for each ply of the search, so searching allocates nothing
+	private int[][] plyMoves;
+	private int[][] plyScores;
+	
+	//spaces in the order gravity-off move generation visits them, each space's place in 
+	//that order, and the board height they are for
+	private int[] centerOrder;
+	private int[] centerRank;
+	private int centerHeight;
+	
+	//marks spaces already collected by generateNearby; a space is marked when it holds stamp
+	private int[] marks;
+	private int stamp;
+	
+	//bitboard threat and junction finder for the board's size, and generateNearby's 
+	//junctions for either player
+	private ThreatMap threatMap;
+	private long[] junctionSpaces;
+	private long[] theirJunctionSpaces;
+	//spaces quiesce found a player wins on next move, and junctionBonus's junctions
+	private long[] winSpaces;
+	private long[] leafJunctions;
+	
+	//evaluator table for the board's k: the weight of a group of each length
+	private int[] groupWeights;
+	
+	//threats each player has by kind, indexed by ThreatMap.SHARED | row parity
+	private final int[] myThreatKinds = new int[4];
+	private final int[] theirThreatKinds = new int[4];
+	
+	//one searcher per pool thread, sharing this AI's transposition table
+	private final ThreadLocal<HALAI> helpers = new ThreadLocal<HALAI>() {
+		@Override
+		protected HALAI initialValue()
+		{
+			HALAI helper = new HALAI(player, startState);
+			helper.table = table;
+			helper.evalCache = evalCache;
+			helper.clock = clock;
+			return helper;
+		}
+	};
 	
 	/**
 	 * Constructor
@@ -37,7 +164,7 @@ public class HALAI extends CKPlayer {
 	 * @author David Galanter
 	 *
 	 */
-	public class Action {
+	public static class Action {
 		private int value;
 		private Point move;
 		
@@ -97,1871 +224,684 @@ public class HALAI extends CKPlayer {
 	 */
 	public boolean hasPotential(BoardModel state, int x, int y)
 	{
-		boolean result = false;
-		int width = state.getWidth();
-		int height = state.getHeight();
-		int k = state.getkLength();
-		int tempx = x;
-		int tempy = y;
+		LineIndex lines = state.lineIndex();
+		int k = lines.k;
+		int cell = x * state.getHeight() + y;
+		byte them = (byte)(player == 1 ? 2 : 1);
 		
-		//CHECKING AI POTENTIAL
-		//check left and right
-		boolean go = true;
-
-		int j = 0;
-		while (j < k)
+		//a space has potential if some line through it is still open for the AI or the opponent
+		if (state.tracksWindows())
 		{
-			if (tempx >= 0 && tempx < width && tempx - (k - 1) >= 0)
+			int[] myCounts = state.windowCounts(player);
+			int[] theirCounts = state.windowCounts(them);
+			for (int i = lines.cellWindowStart[cell]; i < lines.cellWindowStart[cell + 1]; ++i)
 			{
-				int i = 0;
-				while (i < k && go)
-				{
-					if (state.getSpace(tempx, tempy) == (byte)(player == 1 ? 2 : 1))
-						go = false;
-					++i;
-					--tempx;
-				}
-				
-				if (go)
+				int w = lines.cellWindows[i];
+				if (myCounts[w] == 0 || theirCounts[w] == 0)
 					return true;
-				
 			}
-			
-			go = true;
-			++j;
-			tempx = x + j;
-			tempy = y;
+			return false;
 		}
 		
-		
-		//check up and down
-		tempx = x;
-		tempy = y;
-		
-		go = true;
-
-		j = 0;
-		while (j < k)
+		for (int i = lines.cellWindowStart[cell]; i < lines.cellWindowStart[cell + 1]; ++i)
 		{
-			if (tempy >= 0 && tempy < height && tempy - (k - 1) >= 0)
+			int w = lines.cellWindows[i];
+			boolean mine = false;
+			boolean theirs = false;
+			for (int j = w * k; j < w * k + k; ++j)
 			{
-				int i = 0;
-				while (i < k && go)
-				{
-					if (state.getSpace(tempx, tempy) == (byte)(player == 1 ? 2 : 1))
-						go = false;
-					++i;
-					--tempy;
-				}
-				
-				if (go)
-					return true;
-				
+				byte space = state.getCell(lines.windowCells[j]);
+				if (space == player)
+					mine = true;
+				else if (space == them)
+					theirs = true;
 			}
 			
-			go = true;
-			++j;
-			tempx = x;
-			tempy = y + j;
+			if (!theirs || !mine)
+				return true;
 		}
 		
-		//check up left to down right diag
-		tempx = x;
-		tempy = y;
+		return false;
+	}
+	
+	/**
+	 * A junction is a space that can be involved in two or more winning rows, columns, 
+	 * or diagonals. This function checks if a space is a junction for the opponent.
+	 * @param state state of the game to be considered
+	 * @param x x coordinate for the space in question
+	 * @param y y coordinate for the space in question
+	 * @return true if the space is a junction for the opponent
+	 */
+	public boolean isTheirJunction(BoardModel state, int x, int y)
+	{
+		return isJunctionFor(state, x, y, (byte)(player == 1 ? 2 : 1));
+	}
+	
+	/**
+	 * Compliment of isTheirJunction function. Checks if a space is a junction for the AI.
+	 * @param state state of the game in question
+	 * @param x x coordinate of the space in question
+	 * @param y y coordinate of the space in question
+	 * @return true if the space is a junction for AI
+	 */
+	public boolean isJunction(BoardModel state, int x, int y)
+	{
+		return isJunctionFor(state, x, y, player);
+	}
+	
+	/**
+	 * Checks the eight lines that start at a space (left, right, up, down and the four 
+	 * diagonals). A line counts toward a junction when the other k - 1 spaces on it hold 
+	 * k - 2 of owner's pieces and none of the other player's.
+	 * @param state state of the game in question
+	 * @param x x coordinate of the space in question
+	 * @param y y coordinate of the space in question
+	 * @param owner player the junction would belong to
+	 * @return true if two or more such lines start at the space
+	 */
+	private boolean isJunctionFor(BoardModel state, int x, int y, byte owner)
+	{
+		LineIndex lines = state.lineIndex();
+		int k = lines.k;
+		int cell = x * state.getHeight() + y;
+		byte other = (byte)(owner == 1 ? 2 : 1);
+		int potentials = 0;
 		
-		go = true;
-
-		j = 0;
-		while (j < k)
+		//with window counts and the space empty, the counts are those of the other k - 1 spaces
+		if (state.tracksWindows() && state.getCell(cell) == 0)
 		{
-			if (tempy >= 0 && tempy < height && tempy - (k - 1) >= 0
-					&& tempx >= 0 && tempx < width && width - (tempx + 1) >= k)
+			int[] ownerCounts = state.windowCounts(owner);
+			int[] otherCounts = state.windowCounts(other);
+			for (int i = lines.cellWindowStart[cell]; i < lines.cellWindowStart[cell + 1]; ++i)
 			{
-				int i = 0;
-				while (i < k && go)
-				{
-					if (state.getSpace(tempx, tempy) == (byte)(player == 1 ? 2 : 1))
-						go = false;
-					++i;
-					--tempy;
-					++tempx;
-				}
-				
-				if (go)
-					return true;
-				
+				int w = lines.cellWindows[i];
+				if ((lines.first(w) == cell || lines.last(w) == cell) 
+						&& otherCounts[w] == 0 && ownerCounts[w] == k - 2)
+					++potentials;
 			}
-			
-			go = true;
-			++j;
-			tempx = x - j;
-			tempy = y + j;
+			return potentials >= 2;
 		}
 		
-		
-		//check up right diag to down left
-		tempx = x;
-		tempy = y;
-		
-		go = true;
-
-		j = 0;
-		while (j < k)
+		for (int i = lines.cellWindowStart[cell]; i < lines.cellWindowStart[cell + 1]; ++i)
 		{
-			if (tempy >= 0 && tempy < height && tempy - (k - 1) >= 0
-					&& tempx >= 0 && tempx < width && tempx - (k - 1) >= 0)
+			int w = lines.cellWindows[i];
+			if (lines.first(w) != cell && lines.last(w) != cell)
+				continue;
+			
+			boolean go = true;
+			int count = 0;
+			for (int j = w * k; j < w * k + k && go; ++j)
 			{
-				int i = 0;
-				while (i < k && go)
-				{
-					if (state.getSpace(tempx, tempy) == (byte)(player == 1 ? 2 : 1))
-						go = false;
-					++i;
-					--tempy;
-					--tempx;
-				}
-				
-				if (go)
-					return true;
-				
+				int c = lines.windowCells[j];
+				if (c == cell)
+					continue;
+				byte space = state.getCell(c);
+				if (space == other)
+					go = false;
+				else if (space == owner)
+					++count;
 			}
 			
-			go = true;
-			++j;
-			tempx = x + j;
-			tempy = y + j;
+			if (go && count == k - 2)
+				++potentials;
 		}
 		
-		
-		
-		//CHECK OPPONENT POTENTIAL
-		//check left and right
-		tempx = x;
-		tempy = y;
-		go = true;
-
-		j = 0;
-		while (j < k)
-		{
-			if (tempx >= 0 && tempx < width && tempx - (k - 1) >= 0)
+		return potentials >= 2;
+	}
+	
+	/**
+	 * Generates an array of possible moves that could be made next.
+	 * @param gravity if the gravity for this game is on or off
+	 * @param state state of the game in question
+	 * @param maxCalled true if max called this function (the AI)
+	 * @return an array of possible moves to consider
+	 */
+	public Point[] getPoints(boolean gravity, BoardModel state, boolean maxCalled)
+	{
+		int height = state.getHeight();
+		int[] moves = new int[state.getWidth() * height];
+		int size = generateMoves(gravity, state, moves);
+		Point[] myPoints = new Point[size];
+		for (int i = 0; i < size; ++i)
+			myPoints[i] = new Point(moves[i] / height, moves[i] % height);
+		return myPoints;
+	}
+	
+	/**
+	 * Fills a buffer with the moves that could be made next, in the order getPoints 
+	 * returns them, without allocating anything.
+	 * @param gravity if the gravity for this game is on or off
+	 * @param state state of the game in question
+	 * @param moves buffer of at least width * height entries, filled with moves packed as x * height + y
+	 * @return number of moves written
+	 */
+	public int generateMoves(boolean gravity, BoardModel state, int[] moves)
+	{
+		int height = state.getHeight();
+		if (gravity)
+		 {
+			/*
+			 * Only columns with room are returned, each at the row a piece dropped 
+			 * there lands on, ordered from the middle column outwards.
+			 */
+			int width = state.getWidth();
+			long[] open = state.openColumns();
+			int mid = width / 2;
+			int limit = state.getWidth() % 2 == 0 ? mid + 1 : mid;
+			int count = 0;
+			
+			if ((open[mid >>> 6] & (1L << mid)) != 0)
+			{
+				moves[count] = mid * height + state.columnHeight(mid);
+				++count;
+			}
+			for (int i = 1; i <= limit; ++i)
 			{
-				int i = 0;
-				while (i < k && go)
+				int left = mid - i;
+				int right = mid + i;
+				if (!(left < 0) && (open[left >>> 6] & (1L << left)) != 0)
 				{
-					if (state.getSpace(tempx, tempy) == player)
-						go = false;
-					++i;
-					--tempx;
+					moves[count] = left * height + state.columnHeight(left);
+					++count;
+				}
+				if (!(right >= width) && (open[right >>> 6] & (1L << right)) != 0)
+				{
+					moves[count] = right * height + state.columnHeight(right);
+					++count;
 				}
-
-				if (go)
-					return true;
-
 			}
-
-			go = true;
-			++j;
-			tempx = x + j;
-			tempy = y;
-		}
-
-
-		//check up and down
-		tempx = x;
-		tempy = y;
-
-		go = true;
-
-		j = 0;
-		while (j < k)
+			return count;
+		 }
+		 else
+		 {
+			 /*
+			  * Grabs potential points and disregards points that have no potential. 
+			  * Spaces are visited closest to the center first, so the AI will always 
+			  * favor spaces that are closest to the center (shortest euclidean distances).
+			  */
+			 if (state.tracksNeighbors())
+				 return generateNearby(state, moves);
+			 
+			 int[] order = centerOrder(state);
+			 int kLength = state.getkLength();
+			 int inc = 0;
+			 
+			 for (int c = 0; c < order.length; ++c)
+			 {
+				 int i = order[c] / height;
+				 int j = order[c] % height;
+				 if (state.getCell(order[c]) == 0 && hasPotential(state, i, j)
+						 && (hasNeighbor(state, i, j) || (kLength >= 3 && isJunction(state, i, j))
+								 || (kLength >= 3 && isTheirJunction(state, i, j))))
+				 {
+					 moves[inc] = order[c];
+					 ++inc;
+				 }
+			 }
+			 
+			 /*
+			  * If disregarding points results in an empty array, return an array with points 
+			  * that possibly have no potential (most likely towards the end of the game).
+			  */
+			 if (inc <= 0)
+			 {
+				 for (int c = 0; c < order.length; ++c)
+				 {
+					 int i = order[c] / height;
+					 int j = order[c] % height;
+					 if (state.getCell(order[c]) == 0
+							 && (hasNeighbor(state, i, j) || (kLength >= 3 && isJunction(state, i, j))
+									 || (kLength >= 3 && isTheirJunction(state, i, j))))
+					 {
+						 moves[inc] = order[c];
+						 ++inc;
+					 }
+				 }
+			 }
+			 
+			 return inc;
+		 }
+	}
+	
+	/**
+	 * Gravity-off move generation for boards that track their neighbourhoods. Gives the 
+	 * same moves in the same order as the full board scan, but only looks at the spaces 
+	 * next to a piece and at the ends of lines that could make a junction, so its cost 
+	 * grows with the number of pieces rather than the size of the board.
+	 * @param state state of the game in question, with trackNeighbors() on
+	 * @param moves buffer of at least width * height entries, filled with moves packed as x * height + y
+	 * @return number of moves written
+	 */
+	private int generateNearby(BoardModel state, int[] moves)
+	{
+		if (state.getkLength() >= 3)
 		{
-			if (tempy >= 0 && tempy < height && tempy - (k - 1) >= 0)
+			ThreatMap map = threatMap(state);
+			if (junctionSpaces == null || junctionSpaces.length != state.bitboard(player).length)
 			{
-				int i = 0;
-				while (i < k && go)
-				{
-					if (state.getSpace(tempx, tempy) == player)
-						go = false;
-					++i;
-					--tempy;
-				}
-
-				if (go)
-					return true;
-
+				junctionSpaces = new long[state.bitboard(player).length];
+				theirJunctionSpaces = new long[junctionSpaces.length];
 			}
-
-			go = true;
-			++j;
-			tempx = x;
-			tempy = y + j;
+			map.junctions(state, player, junctionSpaces);
+			map.junctions(state, (byte)(player == 1 ? 2 : 1), theirJunctionSpaces);
+			for (int w = 0; w < junctionSpaces.length; ++w)
+				junctionSpaces[w] |= theirJunctionSpaces[w];
 		}
-
-		//check up left to down right diag
-		tempx = x;
-		tempy = y;
-
-		go = true;
-
-		j = 0;
-		while (j < k)
+		
+		int size = collectNearby(state, moves, true);
+		if (size <= 0)
+			size = collectNearby(state, moves, false);
+		
+		//put them in the center-out order of the full scan
+		int[] rank = centerRank;
+		for (int i = 1; i < size; ++i)
+		{
+			int m = moves[i];
+			int j = i;
+			for (; j > 0 && rank[moves[j - 1]] > rank[m]; --j)
+				moves[j] = moves[j - 1];
+			moves[j] = m;
+		}
+		return size;
+	}
+	
+	/**
+	 * Collects the spaces gravity-off move generation accepts: empty spaces next to a 
+	 * piece, and empty spaces that are a junction for either player, read from the 
+	 * junction bitboard generateNearby made.
+	 * @param state state of the game in question, with trackNeighbors() on
+	 * @param moves buffer the spaces are written to, in no particular order
+	 * @param needPotential true to also require hasPotential, as the first pass of the full scan does
+	 * @return number of spaces written
+	 */
+	private int collectNearby(BoardModel state, int[] moves, boolean needPotential)
+	{
+		int width = state.getWidth();
+		int height = state.getHeight();
+		int cells = width * height;
+		int kLength = state.getkLength();
+		centerOrder(state);
+		if (marks == null || marks.length != cells)
+			marks = new int[cells];
+		++stamp;
+		int size = 0;
+		
+		long[] nearby = state.nearbySpaces();
+		for (int word = 0; word < nearby.length; ++word)
 		{
-			if (tempy >= 0 && tempy < height && tempy - (k - 1) >= 0
-					&& tempx >= 0 && tempx < width && width - (tempx + 1) >= k)
+			long bits = nearby[word];
+			while (bits != 0)
 			{
-				int i = 0;
-				while (i < k && go)
+				int cell = (word << 6) + Long.numberOfTrailingZeros(bits);
+				bits &= bits - 1;
+				marks[cell] = stamp;
+				if (!needPotential || hasPotential(state, cell / height, cell % height))
 				{
-					if (state.getSpace(tempx, tempy) == player)
-						go = false;
-					++i;
-					--tempy;
-					++tempx;
+					moves[size] = cell;
+					++size;
 				}
-
-				if (go)
-					return true;
-
 			}
-
-			go = true;
-			++j;
-			tempx = x - j;
-			tempy = y + j;
 		}
-
-
-		//check up right diag to down left
-		tempx = x;
-		tempy = y;
-
-		go = true;
-
-		j = 0;
-		while (j < k)
+		
+		if (kLength < 3)
+			return size;
+		
+		//junction bits are numbered x * (height + 1) + y, like the other bitboards
+		int stride = height + 1;
+		for (int word = 0; word < junctionSpaces.length; ++word)
 		{
-			if (tempy >= 0 && tempy < height && tempy - (k - 1) >= 0
-					&& tempx >= 0 && tempx < width && tempx - (k - 1) >= 0)
+			long bits = junctionSpaces[word];
+			while (bits != 0)
 			{
-				int i = 0;
-				while (i < k && go)
+				int bit = (word << 6) + Long.numberOfTrailingZeros(bits);
+				bits &= bits - 1;
+				int x = bit / stride;
+				int y = bit % stride;
+				int cell = x * height + y;
+				if (marks[cell] == stamp || state.getCell(cell) != 0)
+					continue;
+				if (!needPotential || hasPotential(state, x, y))
 				{
-					if (state.getSpace(tempx, tempy) == player)
-						go = false;
-					++i;
-					--tempy;
-					--tempx;
+					moves[size] = cell;
+					++size;
 				}
-
-				if (go)
-					return true;
-
 			}
-
-			go = true;
-			++j;
-			tempx = x + j;
-			tempy = y + j;
 		}
-		
-		return result;
+		return size;
 	}
 	
 	/**
-	 * A junction is a space that can be involved in two or more winning rows, columns, 
-	 * or diagonals. This function checks if a space is a junction for the opponent.
-	 * @param state state of the game to be considered
+	 * Checks the eight spaces around a space for pieces.
+	 * @param state the game state
 	 * @param x x coordinate for the space in question
 	 * @param y y coordinate for the space in question
-	 * @return true if the space is a junction for the opponent
+	 * @return true if a piece of either player touches the space
 	 */
-	public boolean isTheirJunction(BoardModel state, int x, int y)
+	private boolean hasNeighbor(BoardModel state, int x, int y)
 	{
-		boolean result = false;
-		
+		int width = state.getWidth();
 		int height = state.getHeight();
+		for (int i = Math.max(0, x - 1); i <= Math.min(width - 1, x + 1); ++i)
+			for (int j = Math.max(0, y - 1); j <= Math.min(height - 1, y + 1); ++j)
+				if ((i != x || j != y) && state.getSpace(i, j) != 0)
+					return true;
+		return false;
+	}
+	
+	/**
+	 * Every space of the board sorted by euclidean distance from the center, ties kept 
+	 * in column-major order. Built once per board size.
+	 * @param state state of the game in question
+	 * @return spaces packed as x * height + y, closest to the center first
+	 */
+	private int[] centerOrder(BoardModel state)
+	{
 		int width = state.getWidth();
-		int k = state.getkLength();
-		int potentials = 0;
-		int tempx = x;
-		int tempy = y;
+		int height = state.getHeight();
+		if (centerOrder != null && centerOrder.length == width * height && centerHeight == height)
+			return centerOrder;
 		
-		//check left
-		if (x >= k - 1)
+		Point middle = new Point(width / 2, height / 2);
+		final double[] euclids = new double[width * height];
+		Integer[] cells = new Integer[width * height];
+		for (int c = 0; c < cells.length; ++c)
 		{
-			boolean go = true;
-			int i = 0;
-			int count = 0;
-			--tempx;
-			while (i < k - 1 && go)
-			{
-				if (state.getSpace(tempx, tempy) == player)
-					go = false;
-				if (state.getSpace(tempx, tempy) == (byte)(player == 1 ? 2 : 1))
-					++count;
-				++i;
-				--tempx;
-			}
-			
-			if (go && count == k - 2)
-				++potentials;
+			cells[c] = c;
+			euclids[c] = Math.sqrt(Math.pow((c / height - middle.x), 2) 
+					+ Math.pow((c % height - middle.y), 2));
 		}
-		
-		//check right
-		tempx = x;
-		tempy = y;
-		
-		if (width - (x + 1) >= k)
-		{
-			boolean go = true;
-			int i = 0;
-			int count = 0;
-			++tempx;
-			while (i < k - 1 && go)
+		Arrays.sort(cells, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer a, Integer b)
 			{
-				if (state.getSpace(tempx, tempy) == player)
-					go = false;
-				if (state.getSpace(tempx, tempy) == (byte)(player == 1 ? 2 : 1))
-					++count;
-				++i;
-				++tempx;
+				return Double.compare(euclids[a], euclids[b]);
 			}
-			
-			if (go && count == k - 2)
-				++potentials;
-		}
-		
-		//check up
-		tempx = x;
-		tempy = y;
+		});
 		
-		if (height - (y + 1) >= k)
+		int[] order = new int[cells.length];
+		int[] rank = new int[cells.length];
+		for (int c = 0; c < cells.length; ++c)
 		{
-			boolean go = true;
-			int i = 0;
-			int count = 0;
-			++tempy;
-			while (i < k - 1 && go)
-			{
-				if (state.getSpace(tempx, tempy) == player)
-					go = false;
-				if (state.getSpace(tempx, tempy) == (byte)(player == 1 ? 2 : 1))
-					++count;
-				++i;
-				++tempy;
-			}
-			
-			if (go && count == k - 2)
-				++potentials;
-		}
-		
-		//check down
-		tempx = x;
-		tempy = y;
-		
-		if (y >= k - 1)
-		{
-			boolean go = true;
-			int i = 0;
-			int count = 0;
-			--tempy;
-			while (i < k - 1 && go)
-			{
-				if (state.getSpace(tempx, tempy) == player)
-					go = false;
-				if (state.getSpace(tempx, tempy) == (byte)(player == 1 ? 2 : 1))
-					++count;
-				++i;
-				--tempy;
-			}
-			
-			if (go && count == k - 2)
-				++potentials;
-		}
-		
-		//check up left diag
-		tempx = x;
-		tempy = y;
-		
-		if (height - (y + 1) >= k && x >= k - 1)
-		{
-			boolean go = true;
-			int i = 0;
-			int count = 0;
-			++tempy;
-			--tempx;
-			while (i < k - 1 && go)
-			{
-				if (state.getSpace(tempx, tempy) == player)
-					go = false;
-				if (state.getSpace(tempx, tempy) == (byte)(player == 1 ? 2 : 1))
-					++count;
-				++i;
-				++tempy;
-				--tempx;
-			}
-			
-			if (go && count == k - 2)
-				++potentials;
-		}
-		
-		//check up right diag
-		tempx = x;
-		tempy = y;
-		
-		if (height - (y + 1) >= k && width - (x + 1) >= k)
-		{
-			boolean go = true;
-			int i = 0;
-			int count = 0;
-			++tempy;
-			++tempx;
-			while (i < k - 1 && go)
-			{
-				if (state.getSpace(tempx, tempy) == player)
-					go = false;
-				if (state.getSpace(tempx, tempy) == (byte)(player == 1 ? 2 : 1))
-					++count;
-				++i;
-				++tempy;
-				++tempx;
-			}
-			
-			if (go && count == k - 2)
-				++potentials;
-		}
-		
-		//check down right
-		tempx = x;
-		tempy = y;
-		
-		if (y >= k - 1 && width - (x + 1) >= k)
-		{
-			boolean go = true;
-			int i = 0;
-			int count = 0;
-			--tempy;
-			++tempx;
-			while (i < k - 1 && go)
-			{
-				if (state.getSpace(tempx, tempy) == player)
-					go = false;
-				if (state.getSpace(tempx, tempy) == (byte)(player == 1 ? 2 : 1))
-					++count;
-				++i;
-				--tempy;
-				++tempx;
-			}
-			
-			if (go && count == k - 2)
-				++potentials;
-		}
-		
-		//check down left
-		tempx = x;
-		tempy = y;
-		
-		if (y >= k - 1 && x >= k - 1)
-		{
-			boolean go = true;
-			int i = 0;
-			int count = 0;
-			--tempy;
-			--tempx;
-			while (i < k - 1 && go)
-			{
-				if (state.getSpace(tempx, tempy) == player)
-					go = false;
-				if (state.getSpace(tempx, tempy) == (byte)(player == 1 ? 2 : 1))
-					++count;
-				++i;
-				--tempy;
-				--tempx;
-			}
-			
-			if (go && count == k - 2)
-				++potentials;
-		}
-		
-		if (potentials >= 2)
-			result = true;
-		
-		
-		return result;
-	}
-	
-	/**
-	 * Compliment of isTheirJunction function. Checks if a space is a junction for the AI.
-	 * @param state state of the game in question
-	 * @param x x coordinate of the space in question
-	 * @param y y coordinate of the space in question
-	 * @return true if the space is a junction for AI
-	 */
-	public boolean isJunction(BoardModel state, int x, int y)
-	{
-		boolean result = false;
-		
-		int height = state.getHeight();
-		int width = state.getWidth();
-				
-		int k = state.getkLength();
-		int potentials = 0;
-		int tempx = x;
-		int tempy = y;
-		
-		//check left
-		if (x >= k - 1)
-		{
-			boolean go = true;
-			int i = 0;
-			int count = 0;
-			--tempx;
-			while (i < k - 1 && go)
-			{
-				if (state.getSpace(tempx, tempy) == (byte)(player == 1 ? 2 : 1))
-					go = false;
-				if (state.getSpace(tempx, tempy) == player)
-					++count;
-				++i;
-				--tempx;
-			}
-			
-			if (go && count == k - 2)
-				++potentials;
-		}
-		
-		//check right
-		tempx = x;
-		tempy = y;
-		
-		if (width - (x + 1) >= k)
-		{
-			boolean go = true;
-			int i = 0;
-			int count = 0;
-			++tempx;
-			while (i < k - 1 && go)
-			{
-				if (state.getSpace(tempx, tempy) == (byte)(player == 1 ? 2 : 1))
-					go = false;
-				if (state.getSpace(tempx, tempy) == player)
-					++count;
-				++i;
-				++tempx;
-			}
-			
-			if (go && count == k - 2)
-				++potentials;
-		}
-		
-		//check up
-		tempx = x;
-		tempy = y;
-		
-		if (height - (y + 1) >= k)
-		{
-			boolean go = true;
-			int i = 0;
-			int count = 0;
-			++tempy;
-			while (i < k - 1 && go)
-			{
-				if (state.getSpace(tempx, tempy) == (byte)(player == 1 ? 2 : 1))
-					go = false;
-				if (state.getSpace(tempx, tempy) == player)
-					++count;
-				++i;
-				++tempy;
-			}
-			
-			if (go && count == k - 2)
-				++potentials;
-		}
-		
-		//check down
-		tempx = x;
-		tempy = y;
-		
-		if (y >= k - 1)
-		{
-			boolean go = true;
-			int i = 0;
-			int count = 0;
-			--tempy;
-			while (i < k - 1 && go)
-			{
-				if (state.getSpace(tempx, tempy) == (byte)(player == 1 ? 2 : 1))
-					go = false;
-				if (state.getSpace(tempx, tempy) == player)
-					++count;
-				++i;
-				--tempy;
-			}
-			
-			if (go && count == k - 2)
-				++potentials;
-		}
-		
-		//check up left diag
-		tempx = x;
-		tempy = y;
-		
-		if (height - (y + 1) >= k && x >= k - 1)
-		{
-			boolean go = true;
-			int i = 0;
-			int count = 0;
-			++tempy;
-			--tempx;
-			while (i < k - 1 && go)
-			{
-				if (state.getSpace(tempx, tempy) == (byte)(player == 1 ? 2 : 1))
-					go = false;
-				if (state.getSpace(tempx, tempy) == player)
-					++count;
-				++i;
-				++tempy;
-				--tempx;
-			}
-			
-			if (go && count == k - 2)
-				++potentials;
-		}
-		
-		//check up right diag
-		tempx = x;
-		tempy = y;
-		
-		if (height - (y + 1) >= k && width - (x + 1) >= k)
-		{
-			boolean go = true;
-			int i = 0;
-			int count = 0;
-			++tempy;
-			++tempx;
-			while (i < k - 1 && go)
-			{
-				if (state.getSpace(tempx, tempy) == (byte)(player == 1 ? 2 : 1))
-					go = false;
-				if (state.getSpace(tempx, tempy) == player)
-					++count;
-				++i;
-				++tempy;
-				++tempx;
-			}
-			
-			if (go && count == k - 2)
-				++potentials;
-		}
-		
-		//check down right
-		tempx = x;
-		tempy = y;
-		
-		if (y >= k - 1 && width - (x + 1) >= k)
-		{
-			boolean go = true;
-			int i = 0;
-			int count = 0;
-			--tempy;
-			++tempx;
-			while (i < k - 1 && go)
-			{
-				if (state.getSpace(tempx, tempy) == (byte)(player == 1 ? 2 : 1))
-					go = false;
-				if (state.getSpace(tempx, tempy) == player)
-					++count;
-				++i;
-				--tempy;
-				++tempx;
-			}
-			
-			if (go && count == k - 2)
-				++potentials;
-		}
-		
-		//check down left
-		tempx = x;
-		tempy = y;
-		
-		if (y >= k - 1 && x >= k - 1)
-		{
-			boolean go = true;
-			int i = 0;
-			int count = 0;
-			--tempy;
-			--tempx;
-			while (i < k - 1 && go)
-			{
-				if (state.getSpace(tempx, tempy) == (byte)(player == 1 ? 2 : 1))
-					go = false;
-				if (state.getSpace(tempx, tempy) == player)
-					++count;
-				++i;
-				--tempy;
-				--tempx;
-			}
-			
-			if (go && count == k - 2)
-				++potentials;
-		}
-		
-		if (potentials >= 2)
-			result = true;
-		
-		
-		return result;
-	}
-	
-	/**
-	 * Generates an array of possible moves that could be made next.
-	 * @param gravity if the gravity for this game is on or off
-	 * @param state state of the game in question
-	 * @param maxCalled true if max called this function (the AI)
-	 * @return an array of possible moves to consider
-	 */
-	public Point[] getPoints(boolean gravity, BoardModel state, boolean maxCalled)
-	{
-		if (gravity)
-		 {
-			Point[] myPoints = new Point[state.getWidth()];
-			int width = state.getWidth();
-			int height = state.getHeight();
-			int mid = width / 2;
-			int limit = state.getWidth() % 2 == 0 ? mid + 1 : mid;
-			int count = 1;
-			
-			myPoints[0] = new Point(mid, height - 1);
-			for (int i = 1; i <= limit; ++i)
-			{
-				if (!(mid - i < 0))
-				{
-					myPoints[count] = new Point(mid - i, height - 1);
-					++count;
-				}
-				if (!(mid + i >= width))
-				{
-					myPoints[count] = new Point(mid + i, height - 1);
-					++count;
-				}
-			}
-			return myPoints;
-		 }
-		 else
-		 {
-			 /*
-			  * Grabs potential points and disregards points that have no potential
-			  */
-			 int width = state.getWidth();
-			 int height = state.getHeight();
-			 int inc = 0;
-			 int kLength = state.getkLength();
-			 
-			 
-			 for (int i = 0; i < width; ++i)
-			 {
-				 for (int j = 0; j < height; ++j)
-				 {
-					 boolean add = false;
-					 if (state.getSpace(i, j) == 0 && hasPotential(state, i, j))
-					 {
-						 int tempx = i - 1;
-						 int tempy = j + 1;
-						 
-						 for (int k = 0; k < 3; ++k)
-						 {
-							 for (int l = 0; l < 3; ++l)
-							 {
-								 if ((tempx >= 0 && tempx < width
-										 && tempy >= 0 && tempy < height
-										 && !(tempy == j && tempx == i)
-										 && state.getSpace(tempx, tempy) != 0))
-								 {
-									add = true;
-								 }
-								 ++tempx;
-							 }
-							 --tempy;
-							 tempx = i - 1;
-						 }
-						 if (add || (kLength >= 3 && isJunction(state, i, j))
-								 || (kLength >= 3 && isTheirJunction(state, i, j)))
-							 ++inc;
-						 
-					 }
-					 
-				 }
-			 }
-			 
-			 Point[] myPoints = new Point[inc];
-			 double[] euclids = new double[inc];
-			 Point[] finalPoints = new Point[inc];
-			 int size = inc;
-			 inc = 0;
-			 
-			 for (int i = 0; i < width; ++i)
-			 {
-				 for (int j = 0; j < height; ++j)
-				 {
-					 boolean add = false;
-					 if (state.getSpace(i, j) == 0 && hasPotential(state, i, j))
-					 {
-						 int tempx = i - 1;
-						 int tempy = j + 1;
-						 
-						 for (int k = 0; k < 3; ++k)
-						 {
-							 for (int l = 0; l < 3; ++l)
-							 {
-								 if ((tempx >= 0 && tempx < width
-										 && tempy >= 0 && tempy < height
-										 && !(tempy == j && tempx == i)
-										 && state.getSpace(tempx, tempy) != 0))
-								 { 
-									add = true;
-								 }
-								 ++tempx;
-							 }
-							 --tempy;
-							 tempx = i - 1;
-						 }
-						 
-						 if (add || (kLength >= 3 && isJunction(state, i, j))
-								 || (kLength >= 3 && isTheirJunction(state, i, j)))
-						 {
-							 myPoints[inc] = new Point(i, j);
-							 ++inc;
-						 }
-						 
-					 }
-					 
-				 }
-			 }
-			 
-			 /*
-			  * If disregarding points results in an empty array, return an array with points 
-			  * that possibly have no potential (most likely towards the end of the game).
-			  */
-			 if (size <= 0)
-			 {
-				 inc = 0;
-				 for (int i = 0; i < width; ++i)
-				 {
-					 for (int j = 0; j < height; ++j)
-					 {
-						 boolean add = false;
-						 if (state.getSpace(i, j) == 0)
-						 {
-							 int tempx = i - 1;
-							 int tempy = j + 1;
-							 
-							 for (int k = 0; k < 3; ++k)
-							 {
-								 for (int l = 0; l < 3; ++l)
-								 {
-									 if ((tempx >= 0 && tempx < width
-											 && tempy >= 0 && tempy < height
-											 && !(tempy == j && tempx == i)
-											 && state.getSpace(tempx, tempy) != 0))
-									 {
-										add = true;
-									 }
-									 ++tempx;
-								 }
-								 --tempy;
-								 tempx = i - 1;
-							 }
-							 if (add || (kLength >= 3 && isJunction(state, i, j))
-									 || (kLength >= 3 && isTheirJunction(state, i, j)))
-								 ++inc;
-							 
-						 }
-						 
-					 }
-				 }
-				 
-				 myPoints = new Point[inc];
-				 euclids = new double[inc];
-				 finalPoints = new Point[inc];
-				 size = inc;
-				 inc = 0;
-				 
-				 for (int i = 0; i < width; ++i)
-				 {
-					 for (int j = 0; j < height; ++j)
-					 {
-						 boolean add = false;
-						 if (state.getSpace(i, j) == 0)
-						 {
-							 int tempx = i - 1;
-							 int tempy = j + 1;
-							 
-							 for (int k = 0; k < 3; ++k)
-							 {
-								 for (int l = 0; l < 3; ++l)
-								 {
-									 if ((tempx >= 0 && tempx < width
-											 && tempy >= 0 && tempy < height
-											 && !(tempy == j && tempx == i)
-											 && state.getSpace(tempx, tempy) != 0))
-									 { 
-										add = true;
-									 }
-									 ++tempx;
-								 }
-								 --tempy;
-								 tempx = i - 1;
-							 }
-							 
-							 if (add || (kLength >= 3 && isJunction(state, i, j))
-									 || (kLength >= 3 && isTheirJunction(state, i, j)))
-							 {
-								 myPoints[inc] = new Point(i, j);
-								 ++inc;
-							 }
-							 
-						 }
-						 
-					 }
-				 }
-			 }
-			 
-			 /*
-			  * This figures out the euclidean distance between all points being considered 
-			  * and the center of the board. The AI will always favor spaces that are closest 
-			  * to the center (shortest euclidean distances).
-			  */
-			 //initialize euclids
-			 Point middle = new Point(state.getWidth() / 2, state.getHeight() / 2);
-			 
-			 for (int i = 0; i < size; ++i)
-			 {
-				 euclids[i] = Math.sqrt(Math.pow((myPoints[i].x - middle.x), 2) 
-						 + Math.pow((myPoints[i].y - middle.y), 2));
-			 }
-			 
-			 //initialize finalPoints
-			 int k = 0;
-			 int solidSize = size;
-			 while (k < solidSize)
-			 {
-				 int smallest = 0;
-				 for (int i = 1; i < size; ++i)
-				 {
-					 if (euclids[i] < euclids[smallest])
-						 smallest = i;
-				 }
-				 finalPoints[k] = myPoints[smallest];
-				 
-				 for (int i = smallest; i < size - 1; ++i)
-				 {
-					 myPoints[i] = myPoints[i + 1];
-					 euclids[i] = euclids[i + 1];
-				 }
-				 
-				 ++k;
-				 --size;
-			 }
-			 
-			 
-			 
-			 return finalPoints;
-		 }
-	}
-	
-	/**
-	 * This is the AI's heuristic function. This is how it evaluates if it is doing well 
-	 * or not. The higher the number returned, the better for the AI. The lower, the worse. 
-	 * This function considers quite a few different strategies in order to return a number that is 
-	 * as accurate as possible.
-	 * @param state state of the game that is being considered
-	 * @return a number representing how good or bad this state is for it.
-	 */
-	public int hFunc(BoardModel state)
-	{
-		if (state.gravity)
-		{
-			int kLength = state.getkLength();
-			int width = state.getWidth();
-			int height = state.getHeight();
-			int myTotal = 0;
-			int theirTotal = 0;
-			
-			//groups of different length rows, columns, or diagonals
-			int[] myGroups = new int[kLength + 1];
-			int myGroupsLength = myGroups.length;
-			int[] theirGroups = new int[kLength + 1];
-			int theirGroupsLength = theirGroups.length;
-			
-			//Variables for threat spaces
-			int domain = state.getHeight() * state.getWidth();
-			Point[] myThreats = new Point[domain];
-			int myThreatsSize = 0;
-			int theirThreatsSize = 0;
-			Point[] theirThreats = new Point[domain];
-			
-			//Even odd strategy variables
-			int myUnsharedOddThreats = 0;
-			int theirUnsharedOddThreats = 0;
-			int myUnsharedEvenThreats = 0;
-			int theirUnsharedEvenThreats = 0;
-			int mySharedOddThreats = 0;
-			int mySharedEvenThreats = 0;
-			int theirSharedOddThreats = 0;
-			int theirSharedEvenThreats = 0;
-
-			/*
-			 * First we check how many different consecutive squares the AI and the opponent 
-			 * has in a row, column, or diagonal and what length they are.
-			 */
-			//check MY horizontal
-			Point lastEmpty = new Point(0, 0);
-			for (int j = 0; j < height; ++j)
-			{
-				for (int i = 0; i <= width - kLength; ++i)
-				{
-					int num = 0;
-					boolean go = true;
-					int k = i;
-					while (k < i + kLength && go)
-					{
-						if (state.getSpace(k, j) == player)
-							++num;
-						else if (state.getSpace(k, j) == (byte)(player == 1? 2 : 1))
-							go = false;
-						else
-							lastEmpty = new Point(k, j);
-						++k;
-					}
-					
-					if (num == kLength - 1 && lastEmpty.y - 1 >= 0 
-							&& state.getSpace(lastEmpty.x, lastEmpty.y - 1) == 0 && go)
-					{
-						boolean add = true;
-						for (int l = 0; l < myThreatsSize; ++l)
-						{
-							if (lastEmpty.equals(myThreats[l]))
-								add = false;
-						}
-						if (add)
-						{
-							myThreats[myThreatsSize] = lastEmpty;
-							++myThreatsSize;
-						}
-					}
-					
-					if (go && num != 0)
-						++myGroups[num];
-				}
-			}
-
-			//Check their horizontal
-			for (int j = 0; j < height; ++j)
-			{
-				for (int i = 0; i <= width - kLength; ++i)
-				{
-					int num = 0;
-					boolean go = true;
-					int k = i;
-					while (k < i + kLength && go)
-					{
-						if (state.getSpace(k, j) == (byte)(player == 1? 2 : 1))
-							++num;
-						else if (state.getSpace(k, j) == player)
-							go = false;
-						else
-							lastEmpty = new Point(k, j);
-						++k;
-					}
-					
-					if (num == kLength - 1 && lastEmpty.y - 1 >= 0 
-							&& state.getSpace(lastEmpty.x, lastEmpty.y - 1) == 0 && go)
-					{
-						boolean add = true;
-						for (int l = 0; l < theirThreatsSize; ++l)
-						{
-							if (lastEmpty.equals(theirThreats[l]))
-								add = false;
-						}
-						if (add)
-						{
-							theirThreats[theirThreatsSize] = lastEmpty;
-							++theirThreatsSize;
-						}
-					}
-					
-					if (go && num != 0)
-						++theirGroups[num];
-				}
-			}
-
-			//Check my Vertical
-			for (int j = 0; j < width; ++j)
-			{
-				for (int i = 0; i <= height - kLength; ++i)
-				{
-					int num = 0;
-					boolean go = true;
-					int k = i;
-					while (k < i + kLength && go)
-					{
-						if (state.getSpace(j, k) == player)
-							++num;
-						else if (state.getSpace(j, k) == (byte)(player == 1? 2 : 1))
-							go = false;
-						else
-							lastEmpty = new Point(j, k);
-						++k;
-					}
-					
-					if (num == kLength - 1 && lastEmpty.y - 1 >= 0 
-							&& state.getSpace(lastEmpty.x, lastEmpty.y - 1) == 0 && go)
-					{
-						boolean add = true;
-						for (int l = 0; l < myThreatsSize; ++l)
-						{
-							if (lastEmpty.equals(myThreats[l]))
-								add = false;
-						}
-						if (add)
-						{
-							myThreats[myThreatsSize] = lastEmpty;
-							++myThreatsSize;
-						}
-					}
-					
-					if (go && num != 0)
-						++myGroups[num];
-				}
-			}
-
-			//Check their vertical
-			for (int j = 0; j < width; ++j)
-			{
-				for (int i = 0; i <= height - kLength; ++i)
-				{
-					int num = 0;
-					boolean go = true;
-					int k = i;
-					while (k < i + kLength && go)
-					{
-						if (state.getSpace(j, k) == (byte)(player == 1? 2 : 1))
-							++num;
-						else if (state.getSpace(j, k) == player)
-							go = false;
-						else
-							lastEmpty = new Point(j, k);
-						++k;
-					}
-					
-					if (num == kLength - 1 && lastEmpty.y - 1 >= 0 
-							&& state.getSpace(lastEmpty.x, lastEmpty.y - 1) == 0 && go)
-					{
-						boolean add = true;
-						for (int l = 0; l < theirThreatsSize; ++l)
-						{
-							if (lastEmpty.equals(theirThreats[l]))
-								add = false;
-						}
-						if (add)
-						{
-							theirThreats[theirThreatsSize] = lastEmpty;
-							++theirThreatsSize;
-						}
-					}
-					
-					if (go && num != 0)
-						++theirGroups[num];
-				}
-			}
-
-			//Check my bottom left to top right diagonals
-			for (int j = 0; j <= height - kLength; ++j)
-			{
-				for (int i = 0; i <= width - kLength; ++i)
-				{
-					int num = 0;
-					boolean go = true;
-					int tempHeight = j;
-					int tempWidth = i;
-
-					while (tempHeight < j + kLength && tempWidth < i + kLength && go)
-					{
-						if (state.getSpace(tempWidth, tempHeight) == player)
-							++num;
-						else if (state.getSpace(tempWidth, tempHeight) == (byte)(player == 1? 2 : 1))
-							go = false;
-						else
-							lastEmpty = new Point(tempWidth, tempHeight);
-						++tempHeight;
-						++tempWidth;
-					}
-					
-					if (num == kLength - 1 && lastEmpty.y - 1 >= 0 
-							&& state.getSpace(lastEmpty.x, lastEmpty.y - 1) == 0 && go)
-					{
-						boolean add = true;
-						for (int k = 0; k < myThreatsSize; ++k)
-						{
-							if (lastEmpty.equals(myThreats[k]))
-								add = false;
-						}
-						if (add)
-						{
-							myThreats[myThreatsSize] = lastEmpty;
-							++myThreatsSize;
-						}
-					}
-					
-					if (go && num != 0)
-						++myGroups[num];
-				}
-			}
-
-
-			//Check their bottom left to top right diagonals
-			for (int j = 0; j <= height - kLength; ++j)
-			{
-				for (int i = 0; i <= width - kLength; ++i)
-				{
-					int num = 0;
-					boolean go = true;
-					int tempHeight = j;
-					int tempWidth = i;
-
-					while (tempHeight < j + kLength && tempWidth < i + kLength && go)
-					{
-						if (state.getSpace(tempWidth, tempHeight) == (byte)(player == 1? 2 : 1))
-							++num;
-						else if (state.getSpace(tempWidth, tempHeight) == player)
-							go = false;
-						else
-							lastEmpty = new Point(tempWidth, tempHeight);
-						++tempHeight;
-						++tempWidth;
-					}
-					
-					if (num == kLength - 1 && lastEmpty.y - 1 >= 0 
-							&& state.getSpace(lastEmpty.x, lastEmpty.y - 1) == 0 && go)
-					{
-						boolean add = true;
-						for (int k = 0; k < theirThreatsSize; ++k)
-						{
-							if (lastEmpty.equals(theirThreats[k]))
-								add = false;
-						}
-						if (add)
-						{
-							theirThreats[theirThreatsSize] = lastEmpty;
-							++theirThreatsSize;
-						}
-					}
-					
-					if (go && num != 0)
-						++theirGroups[num];
-				}
-			}
-
-			//Check my bottom right to top left diagonals
-			for (int j = 0; j <= height - kLength; ++j)
-			{
-				for (int i = kLength - 1; i < width; ++i)
-				{
-					int num = 0;
-					boolean go = true;
-					int tempHeight = j;
-					int tempWidth = i;
-
-					while (tempHeight < j + kLength && tempWidth >= i - (kLength - 1) && go)
-					{
-						if (state.getSpace(tempWidth, tempHeight) == player)
-							++num;
-						else if (state.getSpace(tempWidth, tempHeight) == (byte)(player == 1? 2 : 1))
-							go = false;
-						else
-							lastEmpty = new Point(tempWidth, tempHeight);
-						++tempHeight;
-						--tempWidth;
-					}
-					
-					if (num == kLength - 1 && lastEmpty.y - 1 >= 0 
-							&& state.getSpace(lastEmpty.x, lastEmpty.y - 1) == 0 && go)
-					{
-						boolean add = true;
-						for (int k = 0; k < myThreatsSize; ++k)
-						{
-							if (lastEmpty.equals(myThreats[k]))
-								add = false;
-						}
-						if (add)
-						{
-							myThreats[myThreatsSize] = lastEmpty;
-							++myThreatsSize;
-						}
-					}
-					
-					if (go && num != 0)
-						++myGroups[num];
-				}
-			}
-
-			//Check their bottom right to top left diagonals
-			for (int j = 0; j <= height - kLength; ++j)
-			{
-				for (int i = kLength - 1; i < width; ++i)
-				{
-					int num = 0;
-					boolean go = true;
-					int tempHeight = j;
-					int tempWidth = i;
-
-					while (tempHeight < j + kLength && tempWidth >= i - (kLength - 1) && go)
-					{
-						if (state.getSpace(tempWidth, tempHeight) == (byte)(player == 1? 2 : 1))
-							++num;
-						else if (state.getSpace(tempWidth, tempHeight) == player)
-							go = false;
-						else
-							lastEmpty = new Point(tempWidth, tempHeight);
-						++tempHeight;
-						--tempWidth;
-					}
-					
-					if (num == kLength - 1 && lastEmpty.y - 1 >= 0 
-							&& state.getSpace(lastEmpty.x, lastEmpty.y - 1) == 0 && go)
-					{
-						boolean add = true;
-						for (int k = 0; k < theirThreatsSize; ++k)
-						{
-							if (lastEmpty.equals(theirThreats[k]))
-								add = false;
-						}
-						if (add)
-						{
-							theirThreats[theirThreatsSize] = lastEmpty;
-							++theirThreatsSize;
-						}
-					}
-					
-					if (go && num != 0)
-						++theirGroups[num];
-				}
-			}
-			
-			/*
-			 * Any empty square that sits atop another empty square and is also the final 
-			 * square needed for a win is called a threat. This next part figures out how many threats 
-			 * each player has. It also figures out if the threat is on an even or odd row and if 
-			 * the threat is shared or not (essential for certain strategies).
-			 */
-			//Get my threats
-			//4 arrays
-			boolean[] myHasUnsharedOdd = new boolean[width];
-			boolean[] myHasUnsharedEven = new boolean[width];
-			boolean[] myHasSharedOdd = new boolean[width];
-			boolean[] myHasSharedEven = new boolean[width];
-			for (int i = 0; i < myThreatsSize; ++i)
-			{
-				boolean shared = false;
-				
-				for (int j = 0; j < theirThreatsSize; ++j)
-				{
-					if (myThreats[i].x == theirThreats[j].x && myThreats[i].y >= theirThreats[j].y)
-						shared = true;
-				}
-				
-				if (shared)
-				{
-					if ((myThreats[i].y + 1) % 2 == 1 && !myHasSharedOdd[myThreats[i].x])
-					{
-						++mySharedOddThreats;
-						myHasSharedOdd[myThreats[i].x] = true;
-					}
-					else if ((myThreats[i].y + 1) % 2 == 0 && !myHasSharedEven[myThreats[i].x])
-					{
-						++mySharedEvenThreats;
-						myHasSharedEven[myThreats[i].x] = true;
-					}
-				}
-				else
-				{
-					if ((myThreats[i].y + 1) % 2 == 1 && !myHasUnsharedOdd[myThreats[i].x])
-					{
-						++myUnsharedOddThreats;
-						myHasUnsharedOdd[myThreats[i].x] = true;
-					}
-					else if ((myThreats[i].y + 1) % 2 == 0 && !myHasUnsharedEven[myThreats[i].x])
-					{
-						++myUnsharedEvenThreats;
-						myHasUnsharedEven[myThreats[i].x] = true;
-					}
-				}
-			}
-			
-			//get their threats
-			//4 arrays
-			boolean[] themHasUnsharedOdd = new boolean[width];
-			boolean[] themHasUnsharedEven = new boolean[width];
-			boolean[] themHasSharedOdd = new boolean[width];
-			boolean[] themHasSharedEven = new boolean[width];
-			for (int i = 0; i < theirThreatsSize; ++i)
-			{
-				boolean shared = false;
-				
-				for (int j = 0; j < myThreatsSize; ++j)
-				{
-					if (theirThreats[i].x == myThreats[j].x && theirThreats[i].y >= myThreats[j].y)
-						shared = true;
-				}
-				
-				if (shared)
-				{
-					if ((theirThreats[i].y + 1) % 2 == 1 && !themHasSharedOdd[theirThreats[i].x])
-					{
-						++theirSharedOddThreats;
-						themHasSharedOdd[theirThreats[i].x] = true;
-					}
-					else if ((theirThreats[i].y + 1) % 2 == 0 && !themHasSharedEven[theirThreats[i].x])
-					{
-						++theirSharedEvenThreats;
-						themHasSharedEven[theirThreats[i].x] = true;
-					}
-				}
-				else
-				{
-					if ((theirThreats[i].y + 1) % 2 ==1 && !themHasUnsharedOdd[theirThreats[i].x])
-					{
-						++theirUnsharedOddThreats;
-						themHasUnsharedOdd[theirThreats[i].x] = true;
-					}
-					else if ((theirThreats[i].y + 1) % 2 == 0 && !themHasUnsharedEven[theirThreats[i].x])
-					{
-						++theirUnsharedEvenThreats;
-						themHasUnsharedEven[theirThreats[i].x] = true;
-					}
-				}
-			}
-			
-			
-			/*
-			 * This is for the even odd strategy. Having certain threats on certain rows will result 
-			 * in a value bonus or penalty.
-			 */
-			//AI is first player
-			if (player == 1)
-			{
-				if (height % 2 == 0)
-				{
-					//What I need to win
-					if (((myUnsharedOddThreats - 1) == theirUnsharedOddThreats) 
-							|| ((myUnsharedOddThreats == theirUnsharedOddThreats) && (mySharedOddThreats % 2 == 1))
-							|| (theirUnsharedOddThreats == 0 && (mySharedOddThreats + myUnsharedOddThreats) % 2 == 1))
-						myTotal += 100;
-
-					//What he needs to win
-					if (((myUnsharedOddThreats + mySharedOddThreats) == 0 && (theirSharedEvenThreats + theirUnsharedEvenThreats) > 0)
-							|| ((theirUnsharedOddThreats - 2) == myUnsharedOddThreats)
-							|| ((myUnsharedOddThreats == theirUnsharedOddThreats) && (theirSharedOddThreats % 2 == 0 && theirSharedOddThreats > 0))
-							|| ((theirUnsharedOddThreats - 1) == myUnsharedOddThreats && theirSharedOddThreats > 0)
-							|| (myUnsharedOddThreats == 0 && (theirUnsharedOddThreats == 1 && theirSharedOddThreats > 0))
-							|| (((theirUnsharedOddThreats + theirSharedOddThreats) % 2 == 0 && (theirUnsharedOddThreats + theirSharedOddThreats) > 0) && myUnsharedOddThreats == 0))
-						theirTotal += 100;
-				}
-				else if (domain % 2 == 0 && height % 2 == 1)
-				{
-					//what i need to win
-					if (((myUnsharedEvenThreats - 1) == theirUnsharedEvenThreats)
-							|| (mySharedEvenThreats % 2 == 1)
-							|| ((mySharedEvenThreats + myUnsharedEvenThreats) == 1 && (theirSharedOddThreats + theirUnsharedOddThreats) == 1))
-						myTotal += 100;
-
-					//what he needs to win
-					if (((theirSharedOddThreats + theirUnsharedOddThreats) > 0)
-							|| (((theirSharedEvenThreats + theirUnsharedEvenThreats) % 2 == 0 && (theirSharedEvenThreats + theirUnsharedEvenThreats) > 0)
-							&& (((theirUnsharedEvenThreats - 2) == myUnsharedEvenThreats)
-									|| (theirSharedEvenThreats == mySharedEvenThreats))))
-						theirTotal += 100;
-
-				}
-				else if (domain % 2 == 1)
-				{
-					if (((mySharedOddThreats + myUnsharedOddThreats) > 0)
-							|| (((mySharedEvenThreats + myUnsharedEvenThreats) % 2 == 0 && (mySharedEvenThreats + myUnsharedEvenThreats) > 0)
-							&& ((myUnsharedEvenThreats - 2 == theirUnsharedEvenThreats)
-									|| (mySharedEvenThreats == theirSharedEvenThreats))))
-						myTotal += 100;
-					
-					if ((theirUnsharedEvenThreats - 1 == myUnsharedEvenThreats)
-							|| (theirSharedEvenThreats % 2 == 1)
-							|| ((theirSharedEvenThreats + theirUnsharedEvenThreats) == 1
-							&& (mySharedOddThreats + myUnsharedOddThreats) == 1))
-						theirTotal += 100;
-				}
-			}
-			//AI is second player
-			else
+			order[c] = cells[c];
+			rank[cells[c]] = c;
+		}
+		centerHeight = height;
+		centerRank = rank;
+		centerOrder = order;
+		return order;
+	}
+	
+	/**
+	 * This is the AI's heuristic function. This is how it evaluates if it is doing well 
+	 * or not. The higher the number returned, the better for the AI. The lower, the worse. 
+	 * This function considers quite a few different strategies in order to return a number that is 
+	 * as accurate as possible.
+	 * @param state state of the game that is being considered
+	 * @return a number representing how good or bad this state is for it.
+	 */
+	public int hFunc(BoardModel state)
+	{
+		state.trackWindows();
+		return state.gravity ? gravityScore(state) : openScore(state);
+	}
+	
+	/**
+	 * Scores a gravity-on board from the window counts. A window's value depends only on 
+	 * how many pieces of each player it holds, so the group totals are table lookups over 
+	 * the counts BoardModel keeps. Threats are found for the whole board at once with 
+	 * bitboard shifts.
+	 * @param state state of the game that is being considered, with window tracking on
+	 * @return a number representing how good or bad this state is for it.
+	 */
+	private int gravityScore(BoardModel state)
+	{
+		int kLength = state.getkLength();
+		int width = state.getWidth();
+		int height = state.getHeight();
+		byte them = (byte)(player == 1? 2 : 1);
+		buildPatterns(state);
+		
+		if (state.openWindows(them, kLength) > 0)
+			return LOSE_VAL;
+		else if (state.openWindows(player, kLength) > 0)
+			return WIN_VAL;
+		int total = groupScore(state, player) - groupScore(state, them);
+		
+		/*
+		 * A threat is the empty square of a window one piece short of a win, when that 
+		 * square sits atop another empty square. Without such a window there are none.
+		 */
+		int[] mine = myThreatKinds;
+		int[] theirs = theirThreatKinds;
+		if (state.openWindows(player, kLength - 1) > 0 || state.openWindows(them, kLength - 1) > 0)
+			threatMap(state).classify(state, player, mine, theirs);
+		else
+		{
+			Arrays.fill(mine, 0);
+			Arrays.fill(theirs, 0);
+		}
+		
+		return settle(total + parityScore(height, width * height, mine[ThreatMap.ODD_ROW], mine[ThreatMap.EVEN_ROW], 
+				mine[ThreatMap.SHARED | ThreatMap.ODD_ROW], mine[ThreatMap.SHARED | ThreatMap.EVEN_ROW], 
+				theirs[ThreatMap.ODD_ROW], theirs[ThreatMap.EVEN_ROW], 
+				theirs[ThreatMap.SHARED | ThreatMap.ODD_ROW], theirs[ThreatMap.SHARED | ThreatMap.EVEN_ROW]));
+	}
+	
+	/**
+	 * Scores a gravity-off board: the group totals from the window counts plus the 
+	 * junction bonuses.
+	 * @param state state of the game that is being considered, with window tracking on
+	 * @return a number representing how good or bad this state is for it.
+	 */
+	private int openScore(BoardModel state)
+	{
+		int kLength = state.getkLength();
+		byte them = (byte)(player == 1? 2 : 1);
+		buildPatterns(state);
+		
+		if (state.openWindows(them, kLength) > 0)
+			return LOSE_VAL;
+		else if (state.openWindows(player, kLength) > 0)
+			return WIN_VAL;
+		int total = groupScore(state, player) - groupScore(state, them);
+		total += junctionBonus(state, player) - junctionBonus(state, them);
+		return settle(total);
+	}
+	
+	/**
+	 * Scores a player's junctions. The bonus looks at every space, not at where a space 
+	 * is on the board, so it is the same for mirrored and rotated boards.
+	 * @param state state of the game that is being considered
+	 * @param owner player the junctions belong to
+	 * @return 100 if one of owner's pieces is a junction for owner, otherwise 50 if an 
+	 * empty space is, otherwise 0
+	 */
+	private int junctionBonus(BoardModel state, byte owner)
+	{
+		long[] pieces = state.bitboard(owner);
+		long[] others = state.bitboard((byte)(owner == 1 ? 2 : 1));
+		if (leafJunctions == null || leafJunctions.length != pieces.length)
+			leafJunctions = new long[pieces.length];
+		threatMap(state).junctions(state, owner, leafJunctions);
+		
+		boolean onEmpty = false;
+		for (int w = 0; w < pieces.length; ++w)
+		{
+			if ((leafJunctions[w] & pieces[w]) != 0)
+				return 100;
+			if ((leafJunctions[w] & ~(pieces[w] | others[w])) != 0)
+				onEmpty = true;
+		}
+		return onEmpty ? 50 : 0;
+	}
+	
+	/**
+	 * @param state state of the game, with window tracking on
+	 * @param p player whose groups are counted
+	 * @return the sum of the group weights of p's open windows
+	 */
+	private int groupScore(BoardModel state, byte p)
+	{
+		int total = 0;
+		for (int i = 2; i < groupWeights.length; ++i)
+			total += groupWeights[i] * state.openWindows(p, i);
+		return total;
+	}
+	
+	//a score of exactly zero is broken in favour of the second player
+	private int settle(int total)
+	{
+		if (total == 0)
+			return player == 2 ? 1 : -1;
+		return total;
+	}
+	
+	/**
+	 * Builds the evaluator's table for the board's k the first time it is needed.
+	 * @param state state of the game that is being considered
+	 */
+	private void buildPatterns(BoardModel state)
+	{
+		int kLength = state.getkLength();
+		if (groupWeights == null || groupWeights.length != kLength + 1)
+		{
+			//groups of two are worth 1, and each longer group one more than the last
+			groupWeights = new int[kLength + 1];
+			for (int i = 2; i <= kLength; ++i)
+				groupWeights[i] = i - 1;
+		}
+	}
+	
+	/**
+	 * @param state state of the game that is being considered
+	 * @return the bitboard threat finder, built the first time it is needed for the board's size
+	 */
+	private ThreatMap threatMap(BoardModel state)
+	{
+		if (threatMap == null || !threatMap.fits(state))
+			threatMap = new ThreatMap(state);
+		return threatMap;
+	}
+	
+	/**
+	 * Scores the threats each player has on odd and even rows for the even odd strategy. 
+	 * Having certain threats on certain rows will result in a value bonus or penalty.
+	 * @param height height of the board
+	 * @param domain number of spaces on the board
+	 * @return the AI's bonus minus the opponent's
+	 */
+	private int parityScore(int height, int domain, int myUnsharedOddThreats, int myUnsharedEvenThreats, 
+			int mySharedOddThreats, int mySharedEvenThreats, int theirUnsharedOddThreats, int theirUnsharedEvenThreats, 
+			int theirSharedOddThreats, int theirSharedEvenThreats)
+	{
+		int myTotal = 0;
+		int theirTotal = 0;
+		
+		//AI is first player
+		if (player == 1)
+		{
+			if (height % 2 == 0)
 			{
-				if (height % 2 == 0)
-				{
-					//What he needs to win
-					if (((theirUnsharedOddThreats - 1) == myUnsharedOddThreats) 
-							|| ((theirUnsharedOddThreats == myUnsharedOddThreats) && (theirSharedOddThreats % 2 == 1))
-							|| (myUnsharedOddThreats == 0 && (theirSharedOddThreats + theirUnsharedOddThreats) % 2 == 1))
-						theirTotal += 100;
-
-					//What i need to win
-					if (((theirUnsharedOddThreats + theirSharedOddThreats) == 0 && (mySharedEvenThreats + myUnsharedEvenThreats) > 0)
-							|| ((myUnsharedOddThreats - 2) == theirUnsharedOddThreats)
-							|| ((theirUnsharedOddThreats == myUnsharedOddThreats) && (mySharedOddThreats % 2 == 0 && mySharedOddThreats > 0))
-							|| ((myUnsharedOddThreats - 1) == theirUnsharedOddThreats && mySharedOddThreats > 0)
-							|| (theirUnsharedOddThreats == 0 && (myUnsharedOddThreats == 1 && mySharedOddThreats > 0))
-							|| (((myUnsharedOddThreats + mySharedOddThreats) % 2 == 0 && (myUnsharedOddThreats + mySharedOddThreats) > 0) && theirUnsharedOddThreats == 0))
-						myTotal += 100;
-				}
-				else if (domain % 2 == 0 && height % 2 == 1)
-				{
-					//what he needs to win
-					if (((theirUnsharedEvenThreats - 1) == myUnsharedEvenThreats)
-							|| (theirSharedEvenThreats % 2 == 1)
-							|| ((theirSharedEvenThreats + theirUnsharedEvenThreats) == 1 && (mySharedOddThreats + myUnsharedOddThreats) == 1))
-						theirTotal += 100;
-
-					//what i need to win
-					if (((mySharedOddThreats + myUnsharedOddThreats) > 0)
-							|| (((mySharedEvenThreats + myUnsharedEvenThreats) % 2 == 0 && (mySharedEvenThreats + myUnsharedEvenThreats) > 0)
-							&& (((myUnsharedEvenThreats - 2) == theirUnsharedEvenThreats)
-									|| (mySharedEvenThreats == theirSharedEvenThreats))))
-						myTotal += 100;
-				}
-				else if (domain % 2 == 1)
-				{
-					//what they need
-					if (((theirSharedOddThreats + theirUnsharedOddThreats) > 0)
-							|| (((theirSharedEvenThreats + theirUnsharedEvenThreats) % 2 == 0 && (theirSharedEvenThreats + theirUnsharedEvenThreats) > 0)
-							&& ((theirUnsharedEvenThreats - 2 == myUnsharedEvenThreats)
-									|| (theirSharedEvenThreats == mySharedEvenThreats))))
-						theirTotal += 100;
-					
-					//what i need
-					if ((myUnsharedEvenThreats - 1 == theirUnsharedEvenThreats)
-							|| (mySharedEvenThreats % 2 == 1)
-							|| ((mySharedEvenThreats + myUnsharedEvenThreats) == 1
-							&& (theirSharedOddThreats + theirUnsharedOddThreats) == 1))
-						myTotal += 100;
-				}
+				//What I need to win
+				if (((myUnsharedOddThreats - 1) == theirUnsharedOddThreats) 
+						|| ((myUnsharedOddThreats == theirUnsharedOddThreats) && (mySharedOddThreats % 2 == 1))
+						|| (theirUnsharedOddThreats == 0 && (mySharedOddThreats + myUnsharedOddThreats) % 2 == 1))
+					myTotal += 100;
+
+				//What he needs to win
+				if (((myUnsharedOddThreats + mySharedOddThreats) == 0 && (theirSharedEvenThreats + theirUnsharedEvenThreats) > 0)
+						|| ((theirUnsharedOddThreats - 2) == myUnsharedOddThreats)
+						|| ((myUnsharedOddThreats == theirUnsharedOddThreats) && (theirSharedOddThreats % 2 == 0 && theirSharedOddThreats > 0))
+						|| ((theirUnsharedOddThreats - 1) == myUnsharedOddThreats && theirSharedOddThreats > 0)
+						|| (myUnsharedOddThreats == 0 && (theirUnsharedOddThreats == 1 && theirSharedOddThreats > 0))
+						|| (((theirUnsharedOddThreats + theirSharedOddThreats) % 2 == 0 && (theirUnsharedOddThreats + theirSharedOddThreats) > 0) && myUnsharedOddThreats == 0))
+					theirTotal += 100;
 			}
-			
-			/*
-			 * This gets the total score for both players, scaling longer groupings 
-			 * for more points.
-			 */
-			//get my total
-			int scale = 1;
-			for (int i = 2; i < myGroupsLength; ++i)
+			else if (domain % 2 == 0 && height % 2 == 1)
 			{
-				myTotal += (myGroups[i] * scale);
-				++scale;
-			}
+				//what i need to win
+				if (((myUnsharedEvenThreats - 1) == theirUnsharedEvenThreats)
+						|| (mySharedEvenThreats % 2 == 1)
+						|| ((mySharedEvenThreats + myUnsharedEvenThreats) == 1 && (theirSharedOddThreats + theirUnsharedOddThreats) == 1))
+					myTotal += 100;
+
+				//what he needs to win
+				if (((theirSharedOddThreats + theirUnsharedOddThreats) > 0)
+						|| (((theirSharedEvenThreats + theirUnsharedEvenThreats) % 2 == 0 && (theirSharedEvenThreats + theirUnsharedEvenThreats) > 0)
+						&& (((theirUnsharedEvenThreats - 2) == myUnsharedEvenThreats)
+								|| (theirSharedEvenThreats == mySharedEvenThreats))))
+					theirTotal += 100;
 
-			//get their total
-			scale = 1;
-			for (int i = 2; i < theirGroupsLength; ++i)
-			{
-				theirTotal += (theirGroups[i] * scale);
-				++scale;
 			}
-
-			if (theirGroups[kLength] > 0)
-				return LOSE_VAL;
-			else if (myGroups[kLength] > 0)
-				return WIN_VAL;
-			else
+			else if (domain % 2 == 1)
 			{
-				if (myTotal - theirTotal == 0)
-				{
-					if (player == 2)
-						return 1;
-					else
-						return -1;
-				}
+				if (((mySharedOddThreats + myUnsharedOddThreats) > 0)
+						|| (((mySharedEvenThreats + myUnsharedEvenThreats) % 2 == 0 && (mySharedEvenThreats + myUnsharedEvenThreats) > 0)
+						&& ((myUnsharedEvenThreats - 2 == theirUnsharedEvenThreats)
+								|| (mySharedEvenThreats == theirSharedEvenThreats))))
+					myTotal += 100;
 				
-				return myTotal - theirTotal;
+				if ((theirUnsharedEvenThreats - 1 == myUnsharedEvenThreats)
+						|| (theirSharedEvenThreats % 2 == 1)
+						|| ((theirSharedEvenThreats + theirUnsharedEvenThreats) == 1
+						&& (mySharedOddThreats + myUnsharedOddThreats) == 1))
+					theirTotal += 100;
 			}
 		}
+		//AI is second player
 		else
 		{
-			//For different length groups for each player
-			int kLength = state.getkLength();
-			int[] myGroups = new int[kLength + 1];
-			int myGroupsLength = myGroups.length;
-			int[] theirGroups = new int[kLength + 1];
-			int theirGroupsLength = theirGroups.length;
-			
-			
-			int width = state.getWidth();
-			int height = state.getHeight();
-			int myTotal = 0;
-			int theirTotal = 0;
-
-			/*
-			 * Like with gravity on, we check groupings of spaces in every direction 
-			 * for each player.
-			 */
-			//check MY horizontal
-			for (int j = 0; j < height; ++j)
-			{
-				for (int i = 0; i <= width - kLength; ++i)
-				{
-					int num = 0;
-					boolean go = true;
-					int k = i;
-					while (k < i + kLength && go)
-					{
-						if (state.getSpace(k, j) == player)
-							++num;
-						else if (state.getSpace(k, j) == (byte)(player == 1? 2 : 1))
-							go = false;
-						++k;
-					}
-					if (go && num != 0)
-						++myGroups[num];
-				}
-			}
-
-			//Check their horizontal
-			for (int j = 0; j < height; ++j)
-			{
-				for (int i = 0; i <= width - kLength; ++i)
-				{
-					int num = 0;
-					boolean go = true;
-					int k = i;
-					while (k < i + kLength && go)
-					{
-						if (state.getSpace(k, j) == (byte)(player == 1? 2 : 1))
-							++num;
-						else if (state.getSpace(k, j) == player)
-							go = false;
-						++k;
-					}
-					if (go && num != 0)
-						++theirGroups[num];
-				}
-			}
-
-			//Check my Vertical
-			for (int j = 0; j < width; ++j)
-			{
-				for (int i = 0; i <= height - kLength; ++i)
-				{
-					int num = 0;
-					boolean go = true;
-					int k = i;
-					while (k < i + kLength && go)
-					{
-						if (state.getSpace(j, k) == player)
-							++num;
-						else if (state.getSpace(j, k) == (byte)(player == 1? 2 : 1))
-							go = false;
-						++k;
-					}
-					if (go && num != 0)
-						++myGroups[num];
-				}
-			}
-
-			//Check their vertical
-			for (int j = 0; j < width; ++j)
-			{
-				for (int i = 0; i <= height - kLength; ++i)
-				{
-					int num = 0;
-					boolean go = true;
-					int k = i;
-					while (k < i + kLength && go)
-					{
-						if (state.getSpace(j, k) == (byte)(player == 1? 2 : 1))
-							++num;
-						else if (state.getSpace(j, k) == player)
-							go = false;
-						++k;
-					}
-					if (go && num != 0)
-						++theirGroups[num];
-				}
-			}
-
-			//Check my bottom left to top right diagonals
-			for (int j = 0; j <= height - kLength; ++j)
-			{
-				for (int i = 0; i <= width - kLength; ++i)
-				{
-					int num = 0;
-					boolean go = true;
-					int tempHeight = j;
-					int tempWidth = i;
-
-					while (tempHeight < j + kLength && tempWidth < i + kLength && go)
-					{
-						if (state.getSpace(tempWidth, tempHeight) == player)
-							++num;
-						else if (state.getSpace(tempWidth, tempHeight) == (byte)(player == 1? 2 : 1))
-							go = false;
-						++tempHeight;
-						++tempWidth;
-					}
-					if (go && num != 0)
-						++myGroups[num];
-				}
-			}
-
-
-			//Check their bottom left to top right diagonals
-			for (int j = 0; j <= height - kLength; ++j)
-			{
-				for (int i = 0; i <= width - kLength; ++i)
-				{
-					int num = 0;
-					boolean go = true;
-					int tempHeight = j;
-					int tempWidth = i;
-
-					while (tempHeight < j + kLength && tempWidth < i + kLength && go)
-					{
-						if (state.getSpace(tempWidth, tempHeight) == (byte)(player == 1? 2 : 1))
-							++num;
-						else if (state.getSpace(tempWidth, tempHeight) == player)
-							go = false;
-						++tempHeight;
-						++tempWidth;
-					}
-					if (go && num != 0)
-						++theirGroups[num];
-				}
-			}
-
-			//Check my bottom right to top left diagonals
-			for (int j = 0; j <= height - kLength; ++j)
-			{
-				for (int i = kLength - 1; i < width; ++i)
-				{
-					int num = 0;
-					boolean go = true;
-					int tempHeight = j;
-					int tempWidth = i;
-
-					while (tempHeight < j + kLength && tempWidth >= i - (kLength - 1) && go)
-					{
-						if (state.getSpace(tempWidth, tempHeight) == player)
-							++num;
-						else if (state.getSpace(tempWidth, tempHeight) == (byte)(player == 1? 2 : 1))
-							go = false;
-						++tempHeight;
-						--tempWidth;
-					}
-					if (go && num != 0)
-						++myGroups[num];
-				}
-			}
-
-			//Check their bottom right to top left diagonals
-			for (int j = 0; j <= height - kLength; ++j)
-			{
-				for (int i = kLength - 1; i < width; ++i)
-				{
-					int num = 0;
-					boolean go = true;
-					int tempHeight = j;
-					int tempWidth = i;
-
-					while (tempHeight < j + kLength && tempWidth >= i - (kLength - 1) && go)
-					{
-						if (state.getSpace(tempWidth, tempHeight) == (byte)(player == 1? 2 : 1))
-							++num;
-						else if (state.getSpace(tempWidth, tempHeight) == player)
-							go = false;
-						++tempHeight;
-						--tempWidth;
-					}
-					if (go && num != 0)
-						++theirGroups[num];
-				}
-			}
-			
-			/*
-			 * We now check for junctions (spaces that can be included in more 
-			 * than one grouping).
-			 */
-			//Check junctions
-			//do i have a junction
-			boolean iHaveJunc = false;
-			boolean iHaveJuncEmpty = false;
-			for (int i = 0; i < width; ++i)
-				for (int j = 0; j < height; ++j)
-				{
-					if (state.getSpace(i, j) == player)
-						iHaveJunc = isJunction(state, i, j);
-					else if (state.getSpace(i, j) == 0)
-						iHaveJuncEmpty = isJunction(state, i, j);
-				}
-			
-			if (iHaveJunc)
-				myTotal += 100;
-			else if (iHaveJuncEmpty)
-				myTotal += 50;
-			
-			//do they have a junction
-			boolean theyHaveJunc = false;
-			boolean theyHaveJuncEmpty = false;
-			for (int i = 0; i < width; ++i)
-				for (int j = 0; j < height; ++j)
-				{
-					if (state.getSpace(i, j) == (byte)(player == 1? 2 : 1))
-						theyHaveJunc = isTheirJunction(state, i, j);
-					else if (state.getSpace(i, j) == 0)
-						theyHaveJuncEmpty = isTheirJunction(state, i, j);
-				}
-			
-			if (theyHaveJunc)
-				theirTotal += 100;
-			else if (theyHaveJuncEmpty)
-				theirTotal += 50;
-
-			//get Total
-			//get my total
-			int scale = 1;
-			for (int i = 2; i < myGroupsLength; ++i)
+			if (height % 2 == 0)
 			{
-				myTotal += (myGroups[i] * scale);
-				++scale;
+				//What he needs to win
+				if (((theirUnsharedOddThreats - 1) == myUnsharedOddThreats) 
+						|| ((theirUnsharedOddThreats == myUnsharedOddThreats) && (theirSharedOddThreats % 2 == 1))
+						|| (myUnsharedOddThreats == 0 && (theirSharedOddThreats + theirUnsharedOddThreats) % 2 == 1))
+					theirTotal += 100;
+
+				//What i need to win
+				if (((theirUnsharedOddThreats + theirSharedOddThreats) == 0 && (mySharedEvenThreats + myUnsharedEvenThreats) > 0)
+						|| ((myUnsharedOddThreats - 2) == theirUnsharedOddThreats)
+						|| ((theirUnsharedOddThreats == myUnsharedOddThreats) && (mySharedOddThreats % 2 == 0 && mySharedOddThreats > 0))
+						|| ((myUnsharedOddThreats - 1) == theirUnsharedOddThreats && mySharedOddThreats > 0)
+						|| (theirUnsharedOddThreats == 0 && (myUnsharedOddThreats == 1 && mySharedOddThreats > 0))
+						|| (((myUnsharedOddThreats + mySharedOddThreats) % 2 == 0 && (myUnsharedOddThreats + mySharedOddThreats) > 0) && theirUnsharedOddThreats == 0))
+					myTotal += 100;
 			}
-
-			//get their total
-			scale = 1;
-			for (int i = 2; i < theirGroupsLength; ++i)
+			else if (domain % 2 == 0 && height % 2 == 1)
 			{
-				theirTotal += (theirGroups[i] * scale);
-				++scale;
+				//what he needs to win
+				if (((theirUnsharedEvenThreats - 1) == myUnsharedEvenThreats)
+						|| (theirSharedEvenThreats % 2 == 1)
+						|| ((theirSharedEvenThreats + theirUnsharedEvenThreats) == 1 && (mySharedOddThreats + myUnsharedOddThreats) == 1))
+					theirTotal += 100;
+
+				//what i need to win
+				if (((mySharedOddThreats + myUnsharedOddThreats) > 0)
+						|| (((mySharedEvenThreats + myUnsharedEvenThreats) % 2 == 0 && (mySharedEvenThreats + myUnsharedEvenThreats) > 0)
+						&& (((myUnsharedEvenThreats - 2) == theirUnsharedEvenThreats)
+								|| (mySharedEvenThreats == theirSharedEvenThreats))))
+					myTotal += 100;
 			}
-
-			if (theirGroups[kLength] > 0)
-				return LOSE_VAL;
-			else if (myGroups[kLength] > 0)
-				return WIN_VAL;
-			else
+			else if (domain % 2 == 1)
 			{
-				if (myTotal - theirTotal == 0)
-				{
-					if (player == 2)
-						return 1;
-					else
-						return -1;
-				}
+				//what they need
+				if (((theirSharedOddThreats + theirUnsharedOddThreats) > 0)
+						|| (((theirSharedEvenThreats + theirUnsharedEvenThreats) % 2 == 0 && (theirSharedEvenThreats + theirUnsharedEvenThreats) > 0)
+						&& ((theirUnsharedEvenThreats - 2 == myUnsharedEvenThreats)
+								|| (theirSharedEvenThreats == mySharedEvenThreats))))
+					theirTotal += 100;
 				
-				return myTotal - theirTotal;
+				//what i need
+				if ((myUnsharedEvenThreats - 1 == theirUnsharedEvenThreats)
+						|| (mySharedEvenThreats % 2 == 1)
+						|| ((mySharedEvenThreats + myUnsharedEvenThreats) == 1
+						&& (theirSharedOddThreats + theirUnsharedOddThreats) == 1))
+					myTotal += 100;
 			}
 		}
-
+		
+		return myTotal - theirTotal;
 	}
 	
 	/**
@@ -1976,7 +916,16 @@ public class HALAI extends CKPlayer {
 		if (state.spacesLeft == (state.getHeight() * state.getWidth()))
 			return new Point(state.getWidth() / 2, state.getHeight() / 2);
 		else
+		{
+			//a win by forcing threats is found long before alpha beta would see it
+			if (threats == null)
+				threats = new ThreatSearch(THREAT_CACHE_ENTRIES, SAFETY_MARGIN);
+			Point win = threats.findWin(state, player, THREAT_DEPTH, deadline / 4, start);
+			if (win != null)
+				return win;
+			
 			return alphaBetaDeepening(state, deadline, start);
+		}
 	}
 	
 	/**
@@ -1987,23 +936,75 @@ public class HALAI extends CKPlayer {
 	 * @return the move that should be made
 	 */
 	public Point alphaBetaDeepening(BoardModel state, int deadline, long start)
+	{
+		if (table == null)
+			table = new TranspositionTable(TABLE_MEGABYTES);
+		if (evalCache == null && EVAL_CACHE_ENTRIES > 0)
+			evalCache = new EvalCache(EVAL_CACHE_ENTRIES);
+		table.newSearch();
+		state.trackWindows();
+		if (!state.gravity)
+			state.trackNeighbors();
+		clock.start(deadline, start);
+		int firstDepth = Math.max(1, resumeDepth);
+		resumeDepth = 0;
+		
+		if (THREADS > 1 && LAZY_SMP)
+			startLazyHelpers(state, deadline, start);
+		try
+		{
+			return deepen(state, deadline, start, firstDepth);
+		}
+		finally
+		{
+			clock.stop();
+			if (THREADS > 1 && LAZY_SMP)
+				awaitLazyHelpers();
+		}
+	}
+	
+	/**
+	 * Iterative deepening loop behind alphaBetaDeepening.
+	 * @param state state of the game to be considered
+	 * @param deadline how much time in milliseconds is allowed to make a move.
+	 * @param start time when execution of function started
+	 * @param firstDepth depth of the first iteration
+	 * @return the move that should be made
+	 */
+	private Point deepen(BoardModel state, int deadline, long start, int firstDepth)
 	{
 		boolean go = true;
 		Action best = new Action(0, new Point(0, 0));
-		int i = 1;
+		int i = firstDepth;
 		Action temp = new Action(0, new Point(0, 0));
 		
 		
 		Action[] foundActs = new Action[state.getWidth() * state.getHeight()];
 		int size = 0;
+		newOrdering(state);
+		finishedDepth = 0;
 		
 		while (go)
 		{
 			
-			temp = firstMax(state, NEGATIVE_INFINITY, POSITIVE_INFINITY, i, deadline, start);
+			if (i == firstDepth)
+				temp = firstMax(state, NEGATIVE_INFINITY, POSITIVE_INFINITY, i, deadline, start);
+			else
+			{
+				int low = best.getVal() - ASPIRATION_WINDOW;
+				int high = best.getVal() + ASPIRATION_WINDOW;
+				temp = firstMax(state, low, high, i, deadline, start);
+				
+				//outside the window the score is only a bound, so search again with a full one
+				if (temp.getVal() != CANCEL_VAL && temp.getVal() != WIN_VAL 
+						&& (temp.getVal() <= low || temp.getVal() >= high))
+					temp = firstMax(state, NEGATIVE_INFINITY, POSITIVE_INFINITY, i, deadline, start);
+			}
 			
 			foundActs[size] = temp;
 			++size;
+			if (temp.getVal() != CANCEL_VAL)
+				finishedDepth = i;
 			
 			if (temp.getVal() == WIN_VAL)
 			{
@@ -2023,20 +1024,11 @@ public class HALAI extends CKPlayer {
 				//Uncomment below for testing
 //				System.out.println("Moves Ahead: " + size);
 				
+				//with no iteration finished, best is only a placeholder
+				if (size == 0)
+					return survivingMove(state, foundActs, size, null);
 				if (best.getVal() == LOSE_VAL)
-				{
-					boolean doit = true;
-					
-					while (size - 1 >= 0 && doit)
-					{
-						if (foundActs[size - 1].getVal() != LOSE_VAL)
-						{
-							best = foundActs[size - 1];
-							doit = false;
-						}
-						--size;
-					}
-				}
+					return survivingMove(state, foundActs, size, best.getPoint());
 				
 				//Uncomment below for testing
 //				BoardModel tempBoard = state.placePiece(best.getPoint(), player);
@@ -2049,25 +1041,14 @@ public class HALAI extends CKPlayer {
 			if (temp.getVal() == LOSE_VAL)
 			{
 				//Uncomment below for testing
-//				System.out.println("Moves Ahead: " + size);
-				boolean doit = true;
-				
-				while (size - 1 >= 0 && doit)
-				{
-					if (foundActs[size - 1].getVal() != LOSE_VAL)
-					{
-						best = foundActs[size - 1];
-						doit = false;
-					}
-					--size;
-				}
+//				System.out.println("Moves Ahead: " + size);
 				
 				//Uncomment below for testing
 //				BoardModel tempBoard = state.placePiece(temp.getPoint(), player);
 //				System.out.println("Current Val: " + hFunc(tempBoard));
 //				System.out.println("Expected outcome: " + temp.getVal());
 				
-				return best.getPoint();
+				return survivingMove(state, foundActs, size, temp.getPoint());
 			}
 			
 			if (temp.getVal() == 0)
@@ -2082,10 +1063,10 @@ public class HALAI extends CKPlayer {
 			
 			
 			best = temp;
+			pvMove = best.getPoint().x * state.getHeight() + best.getPoint().y;
 			++i;
 			
-			long myMillys = System.currentTimeMillis() - start + 50;
-			if (myMillys >= deadline)
+			if (timeUp())
 				go = false;
 		}
 
@@ -2093,19 +1074,7 @@ public class HALAI extends CKPlayer {
 //		System.out.println("Moves Ahead: " + size);
 		
 		if (best.getVal() == LOSE_VAL)
-		{
-			boolean doit = true;
-			
-			while (size - 1 >= 0 && doit)
-			{
-				if (foundActs[size - 1].getVal() != LOSE_VAL)
-				{
-					best = foundActs[size - 1];
-					doit = false;
-				}
-				--size;
-			}
-		}
+			return survivingMove(state, foundActs, size, best.getPoint());
 		
 		//Uncomment below for testing
 //		BoardModel tempBoard = state.placePiece(best.getPoint(), player);
@@ -2116,6 +1085,125 @@ public class HALAI extends CKPlayer {
 		
 	}
 	
+	/**
+	 * Picks a move once iterative deepening has found a loss. The deepest iteration that 
+	 * did not see the loss is trusted. If every iteration saw it, the loss is put off by 
+	 * taking a space the opponent wins on next move, when there is one.
+	 * @param state state of the game board
+	 * @param foundActs best action of each finished iteration, shallowest first
+	 * @param size number of finished iterations
+	 * @param fallback legal move to make otherwise, or null for the first move generated
+	 * @return the move that should be made
+	 */
+	private Point survivingMove(BoardModel state, Action[] foundActs, int size, Point fallback)
+	{
+		for (int i = size - 1; i >= 0; --i)
+			if (foundActs[i].getVal() != LOSE_VAL)
+				return foundActs[i].getPoint();
+		
+		int stride = state.getHeight() + 1;
+		if (winSpaces == null || winSpaces.length != state.bitboard(player).length)
+			winSpaces = new long[state.bitboard(player).length];
+		if (threatMap(state).wins(state, (byte)(player == 1 ? 2 : 1), winSpaces) > 0)
+		{
+			int bit = 0;
+			while (winSpaces[bit >>> 6] == 0)
+				bit += 64;
+			bit += Long.numberOfTrailingZeros(winSpaces[bit >>> 6]);
+			return new Point(bit / stride, bit % stride);
+		}
+		if (fallback != null)
+			return fallback;
+		
+		int[] moves = plyMoves[0];
+		int count = generateMoves(state.gravity, state, moves);
+		for (int i = 0; i < count; ++i)
+			if (state.getCell(moves[i]) == 0)
+				return new Point(moves[i] / state.getHeight(), moves[i] % state.getHeight());
+		return null;
+	}
+	
+	/**
+	 * Starts the Lazy SMP helpers. Each runs its own iterative deepening loop on a copy of 
+	 * the board, sharing nothing with the main search but the transposition table. Odd and 
+	 * even helpers start one ply apart so they tend to be working on different depths, and 
+	 * what they leave in the table speeds up and reorders the main search.
+	 * @param state state of the game to be considered
+	 * @param deadline how much time in milliseconds is allowed to make a move.
+	 * @param start time when execution of function started
+	 */
+	private void startLazyHelpers(BoardModel state, final int deadline, final long start)
+	{
+		if (lazyHelpers == null)
+		{
+			lazyHelpers = new HALAI[THREADS - 1];
+			lazyRuns = new Future<?>[THREADS - 1];
+			for (int j = 0; j < lazyHelpers.length; ++j)
+			{
+				lazyHelpers[j] = new HALAI(player, startState);
+				lazyHelpers[j].table = table;
+				lazyHelpers[j].evalCache = evalCache;
+				lazyHelpers[j].clock = clock;
+			}
+		}
+		
+		for (int j = 0; j < lazyHelpers.length; ++j)
+		{
+			final HALAI helper = lazyHelpers[j];
+			final BoardModel board = state.clone();
+			final int firstDepth = 1 + (j + 1) % 2;
+			lazyRuns[j] = pool().submit(new Runnable() {
+				@Override
+				public void run()
+				{
+					helper.deepen(board, deadline, start, firstDepth);
+				}
+			});
+		}
+	}
+	
+	/**
+	 * Waits for the Lazy SMP helpers to finish once the shared clock has stopped them.
+	 */
+	private void awaitLazyHelpers()
+	{
+		for (int j = 0; j < lazyRuns.length; ++j)
+		{
+			try
+			{
+				lazyRuns[j].get();
+			}
+			catch (InterruptedException e)
+			{
+				e.printStackTrace();
+			}
+			catch (ExecutionException e)
+			{
+				e.printStackTrace();
+			}
+		}
+	}
+	
+	/**
+	 * @return the pool parallel search modes run on, created on first use
+	 */
+	private ForkJoinPool pool()
+	{
+		if (pool == null)
+			pool = new ForkJoinPool(LAZY_SMP ? THREADS - 1 : THREADS);
+		return pool;
+	}
+	
+	/**
+	 * Checks whether the search should stop, either because the deadline is near 
+	 * or because the move has already been decided.
+	 * @return true if the search should stop
+	 */
+	private boolean timeUp()
+	{
+		return clock.isStopped();
+	}
+	
 	/**
 	 * Alpha Beta pruning max function to be called on the first alpha beta function call.
 	 * @param state current state of the board in question
@@ -2129,151 +1217,497 @@ public class HALAI extends CKPlayer {
 	public Action firstMax(BoardModel state, int alpha, int beta, int limit, int deadline, long start)
 	{
 		
+		if (killers == null)
+			newOrdering(state);
+		int alphaOrig = alpha;
 		int v = NEGATIVE_INFINITY;
-		Point[] myPoints = getPoints(state.gravity, state, true);
-		int size = myPoints.length;
+		int height = state.getHeight();
+		int[] myMoves = plyMoves[0];
+		int size = generateMoves(state.gravity, state, myMoves);
 		Action bestAct = new Action(0, new Point(0, 0));
+		long key = state.canonicalKey();
+		long entry = table.probe(key);
+		rootLimit = limit;
+		int first = TranspositionTable.NO_MOVE;
+		if (pvMove != TranspositionTable.NO_MOVE)
+			first = state.toCanonical(pvMove);
+		else if (entry != 0)
+			first = TranspositionTable.move(entry);
+		orderMoves(myMoves, size, first, 0, player, state);
 		
 		//Uncomment below for testing
 //		System.out.println("The Points:");
 //		for (int i = 0; i < size; ++i)
 //		{
-//			System.out.println("x: " + myPoints[i].x + " y: " + myPoints[i].y);
+//			System.out.println("x: " + myMoves[i] / height + " y: " + myMoves[i] % height);
 //		}
 
 
 		for (int i = 0; i < size; ++i)
 		{
-			if (state.getSpace(myPoints[i]) == 0)
+			if (state.getCell(myMoves[i]) == 0)
 			{
-				BoardModel temp = state.placePiece(myPoints[i], player);
-				byte win = temp.winner();
+				/*
+				 * With more than one search thread, the first move is searched here to set 
+				 * a bound and the remaining moves are split across the pool.
+				 */
+				if (THREADS > 1 && !LAZY_SMP && v != NEGATIVE_INFINITY)
+				{
+					Action split = splitRoot(state, myMoves, i, size, bestAct, alpha, beta, limit, deadline, start);
+					if (split.getVal() == WIN_VAL || split.getVal() == CANCEL_VAL)
+						return split;
+					bestAct = split;
+					break;
+				}
 				
-				if (win == player)
-					return new Action(WIN_VAL, myPoints[i]);
-				else if (win == (byte)(player == 1 ? 2 : 1))
-					v = Math.max(v, LOSE_VAL);
-				else if (win == 0)
-					v = Math.max(v, 0);
+				int val;
+				if (v == NEGATIVE_INFINITY)
+					val = rootValue(state, myMoves[i], alpha, beta, limit, deadline, start);
 				else
-					v = Math.max(v, minVal(temp, alpha, beta, limit - 1, deadline, start));
+				{
+					val = rootValue(state, myMoves[i], alpha, alpha + 1, limit, deadline, start);
+					if (val > alpha && val < beta)
+						val = rootValue(state, myMoves[i], alpha, beta, limit, deadline, start);
+				}
 				
-				if (v == WIN_VAL)
+				if (val == WIN_VAL)
 				{
-					return new Action(v, myPoints[i]);
+					return new Action(val, new Point(myMoves[i] / height, myMoves[i] % height));
 				}
 				
-				long myMillys = System.currentTimeMillis() - start + 50;
-				if (myMillys >= deadline)
+				if (val == CANCEL_VAL || timeUp())
 				{
 					return new Action(CANCEL_VAL, new Point(0, 0));
 				}
 				
-				if (v > alpha)
+				if (val > v)
 				{
-					bestAct = new Action(v, myPoints[i]);
+					v = val;
+					bestAct = new Action(v, new Point(myMoves[i] / height, myMoves[i] % height));
 				}
 				alpha = Math.max(alpha, v);
+				if (v >= beta)
+					break;
 			}
 		}
 		
+		if (v != NEGATIVE_INFINITY)
+		{
+			int bound = TranspositionTable.EXACT;
+			if (bestAct.getVal() <= alphaOrig)
+				bound = TranspositionTable.UPPER;
+			else if (bestAct.getVal() >= beta)
+				bound = TranspositionTable.LOWER;
+			table.store(key, limit, bestAct.getVal(), bound,
+					state.toCanonical(bestAct.getPoint().x * state.getHeight() + bestAct.getPoint().y));
+		}
 		return bestAct;
 	}
 	
 	/**
-	 * Alpha beta pruning max function.
+	 * Value of making one of the AI's moves at the root.
+	 * @param state state of the game board, returned unchanged
+	 * @param move move to make, packed as x * height + y
+	 * @param alpha value of alpha
+	 * @param beta value of beta
+	 * @param limit maximum search depth, counting this move
+	 * @param deadline how much time in milliseconds thats allowed
+	 * @param start time the alphabeta started
+	 * @return value of the move for the AI, or CANCEL_VAL if time ran out
+	 */
+	private int rootValue(BoardModel state, int move, int alpha, int beta, int limit, int deadline, long start)
+	{
+		if (killers == null)
+			newOrdering(state);
+		rootLimit = limit;
+		state.makeMove(move / state.getHeight(), move % state.getHeight(), player);
+		byte win = state.winner();
+		int v;
+		
+		if (win == player)
+			v = WIN_VAL;
+		else if (win == (byte)(player == 1 ? 2 : 1))
+			v = LOSE_VAL;
+		else if (win == 0)
+			v = 0;
+		else
+		{
+			v = search(state, (byte)(player == 1 ? 2 : 1), -beta, -alpha, limit - 1, deadline, start);
+			if (v != CANCEL_VAL)
+				v = -v;
+		}
+		state.unmakeMove();
+		
+		return v;
+	}
+	
+	/**
+	 * Searches the remaining root moves in parallel once the first one has been searched. 
+	 * Each move runs on a pool thread with its own copy of the board and its own helper 
+	 * searcher; all of them share the transposition table and an alpha bound that rises 
+	 * as moves finish, so moves started later are searched with a narrower window.
+	 * @param state state of the game board
+	 * @param myMoves root moves in search order, packed as x * height + y
+	 * @param from index of the first move that has not been searched
+	 * @param size number of root moves
+	 * @param bestAct best move found so far
+	 * @param alpha value of alpha
+	 * @param beta value of beta
+	 * @param limit maximum search depth
+	 * @param deadline how much time in milliseconds thats allowed
+	 * @param start time the alphabeta started
+	 * @return Action of the best move for max, a winning move, or CANCEL_VAL if time ran out
+	 */
+	private Action splitRoot(final BoardModel state, int[] myMoves, int from, int size, Action bestAct, 
+			int alpha, final int beta, final int limit, final int deadline, final long start)
+	{
+		final AtomicInteger sharedAlpha = new AtomicInteger(alpha);
+		final Action best = new Action(bestAct.getVal(), bestAct.getPoint());
+		final List<RecursiveAction> tasks = new ArrayList<RecursiveAction>();
+		
+		for (int i = from; i < size; ++i)
+		{
+			if (state.getCell(myMoves[i]) != 0)
+				continue;
+			
+			final int move = myMoves[i];
+			final Point point = new Point(move / state.getHeight(), move % state.getHeight());
+			tasks.add(new RecursiveAction() {
+				@Override
+				protected void compute()
+				{
+					HALAI searcher = helpers.get();
+					BoardModel board = state.clone();
+					int a = sharedAlpha.get();
+					int v = searcher.rootValue(board, move, a, a + 1, limit, deadline, start);
+					if (v > a && v < beta)
+						v = searcher.rootValue(board, move, sharedAlpha.get(), beta, limit, deadline, start);
+					if (v == CANCEL_VAL)
+						return;
+					
+					synchronized (best)
+					{
+						if (v > best.getVal())
+						{
+							best.setVal(v);
+							best.setPoint(point);
+						}
+					}
+					
+					a = sharedAlpha.get();
+					while (v > a && !sharedAlpha.compareAndSet(a, v))
+						a = sharedAlpha.get();
+				}
+			});
+		}
+		
+		pool().invoke(new RecursiveAction() {
+			@Override
+			protected void compute()
+			{
+				invokeAll(tasks);
+			}
+		});
+		
+		if (timeUp())
+			return new Action(CANCEL_VAL, new Point(0, 0));
+		
+		return best;
+	}
+	
+	/**
+	 * Principal variation search in negamax form: every score is from the point of view 
+	 * of the player about to move. The first move is searched with the full window and 
+	 * the rest with a null window just above alpha, which only proves them no better. 
+	 * A move that turns out better is searched again with the full window.
 	 * @param state state of the game board being considered
+	 * @param side player about to move
 	 * @param alpha value of alpha
 	 * @param beta value of beta
 	 * @param limit maximum search depth
 	 * @param deadline maximum time in milliseconds to search
 	 * @param start start time of alphabeta function
-	 * @return best move for max
+	 * @return value of the position for side, or CANCEL_VAL if time ran out
 	 */
-	public int maxVal(BoardModel state, int alpha, int beta, int limit, int deadline, long start)
+	public int search(BoardModel state, byte side, int alpha, int beta, int limit, int deadline, long start)
 	{
 		if (limit <= 0)
-			return hFunc(state);
+			return quiesce(state, side, 0);
 		
+		long key = state.canonicalKey();
+		long entry = table.probe(key);
+		if (entry != 0 && TranspositionTable.depth(entry) >= limit)
+		{
+			int score = TranspositionTable.score(entry);
+			int bound = TranspositionTable.bound(entry);
+			if (bound == TranspositionTable.EXACT
+					|| (bound == TranspositionTable.LOWER && score >= beta)
+					|| (bound == TranspositionTable.UPPER && score <= alpha))
+				return score;
+		}
+		
+		int alphaOrig = alpha;
 		int v = NEGATIVE_INFINITY;
-		Point[] myPoints = getPoints(state.gravity, state, true);
-		int size = myPoints.length;
+		int bestMove = TranspositionTable.NO_MOVE;
+		int ply = rootLimit - limit;
+		byte other = (byte)(side == 1 ? 2 : 1);
+		int height = state.getHeight();
+		int[] myMoves = plyMoves[ply];
+		int size = generateMoves(state.gravity, state, myMoves);
+		orderMoves(myMoves, size, entry != 0 ? TranspositionTable.move(entry) : TranspositionTable.NO_MOVE, 
+				ply, side, state);
 		
 		for (int i = 0; i < size; ++i)
 		{
-			if (state.getSpace(myPoints[i]) == 0)
+			if (state.getCell(myMoves[i]) == 0)
 			{
-				BoardModel temp = state.placePiece(myPoints[i], player);
-				byte win = temp.winner();
+				state.makeMove(myMoves[i] / height, myMoves[i] % height, side);
+				byte win = state.winner();
 				
-				long myMillys = System.currentTimeMillis() - start + 50;
-				if (myMillys >= deadline)
+				if (timeUp())
+				{
+					state.unmakeMove();
 					return CANCEL_VAL;
+				}
 				
-				if (win == player)
+				int childVal;
+				if (win == side)
+				{
+					state.unmakeMove();
+					record(key, limit, WIN_VAL, TranspositionTable.EXACT, myMoves[i], state);
 					return WIN_VAL;
-				else if (win == (byte)(player == 1 ? 2 : 1))
-					v = Math.max(v, LOSE_VAL);
+				}
+				else if (win == other)
+					childVal = LOSE_VAL;
 				else if (win == 0)
-					v = Math.max(v, 0);
+					childVal = 0;
 				else
-					v = Math.max(v, minVal(temp, alpha, beta, limit - 1, deadline, start));
+				{
+					if (bestMove == TranspositionTable.NO_MOVE)
+						childVal = search(state, other, -beta, -alpha, limit - 1, deadline, start);
+					else
+					{
+						childVal = search(state, other, -alpha - 1, -alpha, limit - 1, deadline, start);
+						if (childVal != CANCEL_VAL && -childVal > alpha && -childVal < beta)
+							childVal = search(state, other, -beta, -alpha, limit - 1, deadline, start);
+					}
+					
+					if (childVal == CANCEL_VAL)
+					{
+						state.unmakeMove();
+						return CANCEL_VAL;
+					}
+					childVal = -childVal;
+				}
+				state.unmakeMove();
+				
+				if (childVal > v)
+				{
+					v = childVal;
+					bestMove = i;
+				}
 				
 				if (v >= beta)
+				{
+					rememberCutoff(myMoves[bestMove], ply, limit, side);
+					record(key, limit, v, TranspositionTable.LOWER, myMoves[bestMove], state);
 					return v;
+				}
 				alpha = Math.max(alpha, v);
 			}
 		}
 		
+		if (bestMove >= 0)
+			record(key, limit, v, v <= alphaOrig ? TranspositionTable.UPPER : TranspositionTable.EXACT,
+					myMoves[bestMove], state);
 		return v;
 	}
 	
 	/**
-	 * Min function for alpha beta pruning.
-	 * @param state state of game board being considered.
-	 * @param alpha value of alpha
-	 * @param beta value of beta
-	 * @param limit maximum search depth
-	 * @param deadline maximum time in milliseconds allowed
-	 * @param start time alphabeta started
-	 * @return best move for min
+	 * Scores a position at the depth limit, first playing out the moves that are forced. 
+	 * A side that can win at once wins, a side facing two wins it cannot both block loses, 
+	 * and a side facing one win blocks it and the search goes on one more ply. Anything 
+	 * else, or reaching the extension cap, is scored by the heuristic as it stands.
+	 * @param state state of the game board
+	 * @param side player to move
+	 * @param extension plies already searched past the depth limit
+	 * @return value of the position for side
 	 */
-	public int minVal(BoardModel state, int alpha, int beta, int limit, int deadline, long start)
+	private int quiesce(BoardModel state, byte side, int extension)
 	{
-		if (limit <= 0)
+		byte other = (byte)(side == 1 ? 2 : 1);
+		int kLength = state.getkLength();
+		if (extension >= QUIESCENCE_PLIES || kLength < 2 
+				|| (state.openWindows(side, kLength - 1) == 0 && state.openWindows(other, kLength - 1) == 0))
+			return side == player ? evaluate(state) : -evaluate(state);
+		
+		ThreatMap map = threatMap(state);
+		if (winSpaces == null || winSpaces.length != state.bitboard(side).length)
+			winSpaces = new long[state.bitboard(side).length];
+		if (state.openWindows(side, kLength - 1) > 0 && map.wins(state, side, winSpaces) > 0)
+			return WIN_VAL;
+		
+		int threats = state.openWindows(other, kLength - 1) > 0 ? map.wins(state, other, winSpaces) : 0;
+		if (threats >= 2)
+			return LOSE_VAL;
+		if (threats == 0)
+			return side == player ? evaluate(state) : -evaluate(state);
+		
+		//the one space the other side wins on has to be taken
+		int stride = state.getHeight() + 1;
+		int bit = 0;
+		while (winSpaces[bit >>> 6] == 0)
+			bit += 64;
+		bit += Long.numberOfTrailingZeros(winSpaces[bit >>> 6]);
+		state.makeMove(bit / stride, bit % stride, side);
+		byte win = state.winner();
+		int v;
+		if (win == side)
+			v = WIN_VAL;
+		else if (win == 0)
+			v = 0;
+		else
+			v = -quiesce(state, other, extension + 1);
+		state.unmakeMove();
+		return v;
+	}
+	
+	/**
+	 * Scores a leaf position with hFunc, going through the evaluation cache when there is one.
+	 * @param state state of the game board
+	 * @return hFunc's score for the position
+	 */
+	private int evaluate(BoardModel state)
+	{
+		if (evalCache == null)
 			return hFunc(state);
+		long key = state.canonicalKey();
+		long entry = evalCache.probe(key);
+		if (entry != 0)
+			return EvalCache.score(entry);
+		int score = hFunc(state);
+		evalCache.store(key, score);
+		return score;
+	}
+	
+	/**
+	 * @return the evaluation cache, with its hit and miss counts, or null before the first 
+	 * search or when it is turned off
+	 */
+	EvalCache evalCache()
+	{
+		return evalCache;
+	}
+	
+	/**
+	 * Stores a search result in the transposition table unless the search has run out 
+	 * of time, in which case the result may come from cancelled children.
+	 * @param key Zobrist key of the position
+	 * @param limit depth the position was searched to
+	 * @param v value found for the position
+	 * @param bound whether v is exact, a lower bound or an upper bound
+	 * @param move best move found, packed as x * height + y
+	 * @param state state of the game board
+	 */
+	private void record(long key, int limit, int v, int bound, int move, BoardModel state)
+	{
+		if (!timeUp())
+			table.store(key, limit, v, bound, state.toCanonical(move));
+	}
+	
+	/**
+	 * Starts the move ordering tables for a new search: killers are forgotten and 
+	 * history scores are halved so older moves of the game count for less. The tables 
+	 * and the per-ply move buffers are allocated here the first time.
+	 * @param state state of the game board
+	 */
+	private void newOrdering(BoardModel state)
+	{
+		int cells = state.getWidth() * state.getHeight();
+		if (killers == null || history[0].length != cells)
+		{
+			killers = new int[cells + 1][2];
+			history = new int[2][cells];
+			plyMoves = new int[cells + 1][cells];
+			plyScores = new int[cells + 1][cells];
+		}
+		for (int i = 0; i < killers.length; ++i)
+		{
+			killers[i][0] = TranspositionTable.NO_MOVE;
+			killers[i][1] = TranspositionTable.NO_MOVE;
+		}
+		for (int i = 0; i < cells; ++i)
+		{
+			history[0][i] >>= 1;
+			history[1][i] >>= 1;
+		}
+		pvMove = TranspositionTable.NO_MOVE;
+	}
+	
+	/**
+	 * Orders moves for searching: the remembered best move first, then the killer moves 
+	 * of this ply, then the rest by history score. Moves that tie keep the order 
+	 * getPoints gave them.
+	 * @param moves moves to be searched, packed as x * height + y
+	 * @param size number of moves
+	 * @param first remembered best move in canonical orientation (x * height + y) or NO_MOVE
+	 * @param ply distance from the root of the search
+	 * @param side player making the moves
+	 * @param state state of the game board the moves are for
+	 */
+	private void orderMoves(int[] moves, int size, int first, int ply, byte side, BoardModel state)
+	{
+		if (first != TranspositionTable.NO_MOVE)
+			first = state.fromCanonical(first);
+		int killer0 = killers[ply][0];
+		int killer1 = killers[ply][1];
+		int[] scores = history[side - 1];
 		
-		int v = POSITIVE_INFINITY;
-		Point[] myPoints = getPoints(state.gravity, state, false);
-		int size = myPoints.length;
-		
+		int[] order = plyScores[ply];
 		for (int i = 0; i < size; ++i)
 		{
-			if (state.getSpace(myPoints[i]) == 0)
+			int cell = moves[i];
+			if (cell == first)
+				order[i] = Integer.MAX_VALUE;
+			else if (cell == killer0)
+				order[i] = Integer.MAX_VALUE - 1;
+			else if (cell == killer1)
+				order[i] = Integer.MAX_VALUE - 2;
+			else
+				order[i] = scores[cell];
+		}
+		
+		for (int i = 1; i < size; ++i)
+		{
+			int m = moves[i];
+			int o = order[i];
+			int j = i;
+			for (; j > 0 && order[j - 1] < o; --j)
 			{
-				BoardModel temp = state.placePiece(myPoints[i], (byte)(player == 1? 2 : 1));
-				byte win = temp.winner();
-				
-				long myMillys = System.currentTimeMillis() - start + 50;
-				if (myMillys >= deadline)
-					return CANCEL_VAL;
-				
-				if (win == (byte)(player == 1 ? 2 : 1))
-					return LOSE_VAL;
-				else if (win == player)
-					v = Math.min(v, WIN_VAL);
-				else if (win == 0)
-					v = Math.min(v, 0);
-				else
-					v = Math.min(v, maxVal(temp, alpha, beta, limit - 1, deadline, start));
-				
-				if (v <= alpha)
-					return v;
-				beta = Math.min(beta, v);
+				moves[j] = moves[j - 1];
+				order[j] = order[j - 1];
 			}
+			moves[j] = m;
+			order[j] = o;
 		}
-		
-		return v;
+	}
+	
+	/**
+	 * Remembers a move that caused a cutoff as a killer for its ply and raises its 
+	 * history score, more for cutoffs found with more depth left.
+	 * @param cell move that caused the cutoff, packed as x * height + y
+	 * @param ply distance from the root of the search
+	 * @param limit search depth left at the node
+	 * @param side player that made the move
+	 */
+	private void rememberCutoff(int cell, int ply, int limit, byte side)
+	{
+		if (killers[ply][0] != cell)
+		{
+			killers[ply][1] = killers[ply][0];
+			killers[ply][0] = cell;
+		}
+		history[side - 1][cell] = Math.min(history[side - 1][cell] + limit * limit, 1 << 28);
 	}
 	
 	/**
@@ -2300,29 +1734,221 @@ public class HALAI extends CKPlayer {
 	public Point getMove(BoardModel state, int deadline) {
 		
 		long start = System.currentTimeMillis();
+		Point result;
+		
+		//a ponder hit goes through the same steps, with its iterations already in the table
+		if (PONDER)
+			resumeDepth = stopPondering(state);
+		
+		result = bookMove(state);
+		if (result == null)
+			result = endgameMove(state, deadline, start);
+		if (result != null)
+		{
+			if (PONDER)
+				startPondering(state, result, deadline);
+			return result;
+		}
 		
 		if (state.gravity)
 		{
-			Point result = alphaBetaDeepening(state, deadline, start);
+			result = alphaBetaDeepening(state, deadline, start);
 			
 			//Uncomment below for testing
 //			long elapsedMillys = System.currentTimeMillis() - start;
 //			float seconds = elapsedMillys / 1000f;
 //			System.out.println("Time: " + seconds);
-			
-			return result;
 		}
 		
 		else
 		{
-			Point result = gravOffMove(state, deadline, start);
+			result = gravOffMove(state, deadline, start);
 			
 			//Uncomment below for testing
 //			long elapsedMillys = System.currentTimeMillis() - start;
 //			float seconds = elapsedMillys / 1000f;
 //			System.out.println("Time: " + seconds);
-
-			return result;
 		}
+		
+		if (PONDER)
+			startPondering(state, result, deadline);
+		return result;
+	}
+	
+	/**
+	 * Looks the position up in the opening book, opening the book the first time.
+	 * @param state state of the game board
+	 * @return the book move, or null if there is no book or the position is not in it
+	 */
+	private Point bookMove(BoardModel state)
+	{
+		if (!bookOpened)
+		{
+			bookOpened = true;
+			if (BOOK_PATH != null)
+				book = OpeningBook.open(BOOK_PATH, state);
+		}
+		if (book == null)
+			return null;
+		return legalMove(state, book.move(state.canonicalKey()));
+	}
+	
+	/**
+	 * Solves the position exactly once few enough spaces are left. The solver gets half 
+	 * the time for the move; if it runs out, the normal search takes over. In a lost 
+	 * position the solver's move is the one that puts the loss off longest.
+	 * @param state state of the game board
+	 * @param deadline how much time in milliseconds is allowed to make a move
+	 * @param start time when the move was asked for
+	 * @return the solver's move, or null if the position was not solved
+	 */
+	private Point endgameMove(BoardModel state, int deadline, long start)
+	{
+		if (state.spacesLeft > ENDGAME_SPACES)
+			return null;
+		if (solver == null)
+			solver = new EndgameSolver(Math.max(1, TABLE_MEGABYTES / 4), SAFETY_MARGIN);
+		
+		return solver.solve(state, player, deadline / 2, start);
+	}
+	
+	/**
+	 * Turns a remembered move back into a point on the board, checking that it can 
+	 * still be played there.
+	 * @param state state of the game board the move was remembered for
+	 * @param move move in canonical orientation (x * height + y) or NO_MOVE
+	 * @return the move, or null if there is none or it cannot be played
+	 */
+	private Point legalMove(BoardModel state, int move)
+	{
+		if (move == TranspositionTable.NO_MOVE)
+			return null;
+		int cell = state.fromCanonical(move);
+		int x = cell / state.getHeight();
+		int y = cell % state.getHeight();
+		if (x >= state.getWidth() || state.getSpace(x, y) != 0 || (state.gravity && state.columnHeight(x) != y))
+			return null;
+		return new Point(x, y);
+	}
+	
+	/**
+	 * Searches a position the way getMove would, for OpeningBook's builder.
+	 * @param state state of the game board, with this AI to move
+	 * @param deadline how much time in milliseconds the search may take
+	 * @return the move found in canonical orientation in the high 32 bits and its score in the low 32
+	 */
+	long bookSearch(BoardModel state, int deadline)
+	{
+		//the empty board gets the centre without a search, so the table may not exist yet
+		if (table == null)
+			table = new TranspositionTable(TABLE_MEGABYTES);
+		Point move = state.spacesLeft == state.getWidth() * state.getHeight() && !state.gravity
+				? gravOffMove(state, deadline, System.currentTimeMillis())
+				: alphaBetaDeepening(state, deadline, System.currentTimeMillis());
+		long entry = table.probe(state.canonicalKey());
+		int score = entry != 0 ? TranspositionTable.score(entry) : 0;
+		return ((long) state.toCanonical(move.x * state.getHeight() + move.y) << 32) | (score & 0xFFFFFFFFL);
+	}
+	
+	/**
+	 * Guesses the opponent's reply to the move being made and starts searching the 
+	 * position it leads to on a background thread, to run until the next getMove or 
+	 * for PONDER_DEADLINES move deadlines, whichever comes first. Nothing is started 
+	 * when either move ends the game. The guess is the reply the transposition table 
+	 * remembers, or the reply getPoints would search first.
+	 * @param state state of the game board before the move
+	 * @param move move being made
+	 * @param deadline how much time in milliseconds the move was allowed
+	 */
+	private void startPondering(BoardModel state, Point move, int deadline)
+	{
+		BoardModel after = state.placePiece(move, player);
+		if (after.winner() != -1)
+			return;
+		
+		byte opponent = (byte)(player == 1 ? 2 : 1);
+		Point reply = null;
+		long entry = table == null ? 0 : table.probe(after.canonicalKey());
+		if (entry != 0)
+			reply = legalMove(after, TranspositionTable.move(entry));
+		if (reply == null)
+		{
+			Point[] replies = getPoints(after.gravity, after, false);
+			for (int i = 0; i < replies.length && reply == null; ++i)
+				if (after.getSpace(replies[i]) == 0)
+					reply = replies[i];
+		}
+		if (reply == null)
+			return;
+		
+		final BoardModel board = after.placePiece(reply, opponent);
+		if (board.winner() != -1 || bookMove(board) != null)
+			return;
+		board.trackWindows();
+		if (!board.gravity)
+			board.trackNeighbors();
+		
+		if (table == null)
+			table = new TranspositionTable(TABLE_MEGABYTES);
+		if (evalCache == null && EVAL_CACHE_ENTRIES > 0)
+			evalCache = new EvalCache(EVAL_CACHE_ENTRIES);
+		if (ponderer == null)
+		{
+			ponderer = new HALAI(player, startState);
+			ponderer.table = table;
+			ponderer.evalCache = evalCache;
+		}
+		ponderBoard = board.clone();
+		ponderReply = board.getLastMove();
+		final int budget = (int) Math.min(Integer.MAX_VALUE, (long) deadline * PONDER_DEADLINES);
+		final long ponderStart = System.currentTimeMillis();
+		ponderer.clock.start(budget, ponderStart);
+		
+		final HALAI searcher = ponderer;
+		ponderRun = new FutureTask<Point>(new Callable<Point>() {
+			@Override
+			public Point call()
+			{
+				return searcher.deepen(board, budget, ponderStart, 1);
+			}
+		});
+		Thread thread = new Thread(ponderRun, "HAL ponder");
+		thread.setDaemon(true);
+		thread.start();
+	}
+	
+	/**
+	 * Ends the background search started by startPondering. Whether or not the opponent 
+	 * made the predicted reply, the search is stopped and what it left in the 
+	 * transposition table is kept; on a hit the iterations it finished need not be 
+	 * searched again.
+	 * @param state state of the game board now
+	 * @return the depth the ponder search finished on a hit, otherwise 0
+	 */
+	private int stopPondering(BoardModel state)
+	{
+		if (ponderRun == null)
+			return 0;
+		
+		boolean hit = ponderReply.equals(state.getLastMove()) && ponderBoard.equals(state);
+		ponderer.clock.stop();
+		
+		try
+		{
+			ponderRun.get();
+		}
+		catch (InterruptedException e)
+		{
+			e.printStackTrace();
+		}
+		catch (ExecutionException e)
+		{
+			e.printStackTrace();
+		}
+		ponderRun = null;
+		ponderBoard = null;
+		ponderReply = null;
+		
+		return hit ? ponderer.finishedDepth : 0;
 	}
 }
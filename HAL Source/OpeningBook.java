@@ -0,0 +1,259 @@
+import connectK.BoardModel;
+import java.awt.Point;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Precomputed best moves for the first plies of a game, read from a file built
+ * offline by main().
+ *
+ * The file holds a header with the board geometry, followed by entries sorted by
+ * canonical position key. Each entry holds the key, the best move in canonical
+ * orientation (x * height + y) and its search score. At runtime the file is
+ * memory-mapped and searched by binary search, so a lookup reads only a few pages
+ * and never loads the whole book. Keys come from BoardModel's Zobrist tables,
+ * which are seeded the same way on every run, so a book stays valid between runs.
+ *
+ * A book only covers positions reachable when the side the book was built for
+ * plays its book moves; every reply of the other side is covered.
+ */
+public class OpeningBook {
+
+	private static final int MAGIC = 0x48414C42; //"HALB"
+	private static final int VERSION = 1;
+	private static final int HEADER_BYTES = 28;
+	private static final int ENTRY_BYTES = 16;
+
+	private final MappedByteBuffer entries;
+	private final int count;
+
+	private OpeningBook(MappedByteBuffer entries, int count)
+	{
+		this.entries = entries;
+		this.count = count;
+	}
+
+	/**
+	 * Opens a book file.
+	 * @param path path of the book file
+	 * @param state board the book will be used for
+	 * @return the book, or null if the file is missing, unreadable or built for another board
+	 */
+	public static OpeningBook open(String path, BoardModel state)
+	{
+		File file = new File(path);
+		if (!file.isFile())
+			return null;
+
+		try (RandomAccessFile raf = new RandomAccessFile(file, "r"); FileChannel channel = raf.getChannel())
+		{
+			if (channel.size() < HEADER_BYTES)
+				return null;
+			MappedByteBuffer map = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			if (map.getInt(0) != MAGIC || map.getInt(4) != VERSION
+					|| map.getInt(8) != state.getWidth() || map.getInt(12) != state.getHeight()
+					|| map.getInt(16) != state.getkLength() || map.getInt(20) != (state.gravity ? 1 : 0))
+				return null;
+			int count = map.getInt(24);
+			if (channel.size() < HEADER_BYTES + (long) count * ENTRY_BYTES)
+				return null;
+			return new OpeningBook(map, count);
+		}
+		catch (IOException e)
+		{
+			e.printStackTrace();
+			return null;
+		}
+	}
+
+	/**
+	 * Looks up the best move for a position.
+	 * @param key canonical key of the position
+	 * @return best move in canonical orientation, or TranspositionTable.NO_MOVE if the position is not in the book
+	 */
+	public int move(long key)
+	{
+		int entry = find(key);
+		return entry < 0 ? TranspositionTable.NO_MOVE : entries.getInt(HEADER_BYTES + entry * ENTRY_BYTES + 8);
+	}
+
+	/**
+	 * @param key canonical key of a position in the book
+	 * @return score the builder's search gave the position, for the side to move
+	 */
+	public int score(long key)
+	{
+		int entry = find(key);
+		return entry < 0 ? 0 : entries.getInt(HEADER_BYTES + entry * ENTRY_BYTES + 12);
+	}
+
+	/**
+	 * @return number of positions in the book
+	 */
+	public int size()
+	{
+		return count;
+	}
+
+	private int find(long key)
+	{
+		int low = 0;
+		int high = count - 1;
+		while (low <= high)
+		{
+			int mid = (low + high) >>> 1;
+			long found = entries.getLong(HEADER_BYTES + mid * ENTRY_BYTES);
+			if (found < key)
+				low = mid + 1;
+			else if (found > key)
+				high = mid - 1;
+			else
+				return mid;
+		}
+		return -1;
+	}
+
+	/**
+	 * Builds a book file. Every position of a ply is searched in parallel, one HAL
+	 * searcher per thread.
+	 *
+	 * Usage: OpeningBook width height k gravity(0|1) plies millisPerPosition output [threads]
+	 * @param args command line arguments
+	 */
+	@SuppressWarnings("deprecation")
+	public static void main(String[] args) throws IOException, InterruptedException, ExecutionException
+	{
+		if (args.length < 7)
+		{
+			System.err.println("usage: OpeningBook width height k gravity(0|1) plies millisPerPosition output [threads]");
+			System.exit(1);
+		}
+		int width = Integer.parseInt(args[0]);
+		int height = Integer.parseInt(args[1]);
+		int k = Integer.parseInt(args[2]);
+		boolean gravity = Integer.parseInt(args[3]) != 0;
+		int plies = Integer.parseInt(args[4]);
+		final int millis = Integer.parseInt(args[5]);
+		String output = args[6];
+		int threads = args.length > 7 ? Integer.parseInt(args[7]) : Runtime.getRuntime().availableProcessors();
+
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		final ThreadLocal<HALAI[]> searchers = new ThreadLocal<HALAI[]>();
+		BoardModel empty = BoardModel.newBoard(width, height, k, gravity);
+		Map<Long, long[]> book = new LinkedHashMap<Long, long[]>();
+
+		//a failed search ends the build; shutting the pool down keeps its threads from holding the JVM open
+		try
+		{
+			//a book for each side: that side's positions get searched, the other side's get every reply
+			for (byte side = 1; side <= 2; ++side)
+			{
+				Map<Long, BoardModel> frontier = new LinkedHashMap<Long, BoardModel>();
+				frontier.put(empty.canonicalKey(), empty);
+
+				for (int ply = 0; ply < plies && !frontier.isEmpty(); ++ply)
+				{
+					final byte toMove = (byte) (ply % 2 == 0 ? 1 : 2);
+					Map<Long, BoardModel> next = new LinkedHashMap<Long, BoardModel>();
+
+					if (toMove != side)
+					{
+						for (BoardModel position : frontier.values())
+							for (int x = 0; x < width; ++x)
+								for (int y = 0; y < height; ++y)
+									if (position.getSpace(x, y) == 0 && (!gravity || position.columnHeight(x) == y))
+										addOpen(next, position.placePiece(new Point(x, y), toMove));
+					}
+					else
+					{
+						List<Future<long[]>> results = new ArrayList<Future<long[]>>();
+						for (final BoardModel position : frontier.values())
+						{
+							results.add(pool.submit(new Callable<long[]>() {
+								@Override
+								public long[] call()
+								{
+									HALAI[] mine = searchers.get();
+									if (mine == null)
+									{
+										mine = new HALAI[2];
+										searchers.set(mine);
+									}
+									if (mine[toMove - 1] == null)
+										mine[toMove - 1] = new HALAI(toMove, position);
+									return new long[] {position.canonicalKey(), mine[toMove - 1].bookSearch(position.clone(), millis)};
+								}
+							}));
+						}
+
+						int i = 0;
+						for (BoardModel position : frontier.values())
+						{
+							long[] result = results.get(i++).get();
+							book.put(result[0], result);
+							int move = position.fromCanonical((int) (result[1] >> 32));
+							addOpen(next, position.placePiece(new Point(move / height, move % height), toMove));
+						}
+					}
+					System.err.println("side " + side + " ply " + ply + ": " + frontier.size() + " positions");
+					frontier = next;
+				}
+			}
+		}
+		finally
+		{
+			pool.shutdownNow();
+		}
+
+		long[][] sorted = book.values().toArray(new long[book.size()][]);
+		Arrays.sort(sorted, new Comparator<long[]>() {
+			@Override
+			public int compare(long[] a, long[] b)
+			{
+				return Long.compare(a[0], b[0]);
+			}
+		});
+
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(output))))
+		{
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(width);
+			out.writeInt(height);
+			out.writeInt(k);
+			out.writeInt(gravity ? 1 : 0);
+			out.writeInt(sorted.length);
+			for (long[] entry : sorted)
+			{
+				out.writeLong(entry[0]);
+				out.writeInt((int) (entry[1] >> 32));
+				out.writeInt((int) entry[1]);
+			}
+		}
+		System.err.println(sorted.length + " positions written to " + output);
+	}
+
+	//adds a position to the next ply unless the game is already over there
+	private static void addOpen(Map<Long, BoardModel> positions, BoardModel position)
+	{
+		if (position.winner() == -1 && !positions.containsKey(position.canonicalKey()))
+			positions.put(position.canonicalKey(), position);
+	}
+}
@@ -0,0 +1,92 @@
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tells a search when to stop without reading the system clock at every node.
+ *
+ * When a search starts, a timer is scheduled to go off a safety margin before the
+ * deadline. When it goes off it sets a volatile flag, so checking the time inside
+ * the search costs a single field read. One clock can be shared by every thread
+ * working on the same move.
+ */
+public class SearchClock {
+
+	//one daemon timer thread for every clock, so an unfinished timer never keeps the game running
+	private static final ScheduledExecutorService TIMER = createTimer();
+
+	private final int safetyMargin;
+	private volatile boolean stopped;
+	private ScheduledFuture<?> alarm;
+
+	private final Runnable stop = new Runnable() {
+		@Override
+		public void run()
+		{
+			stopped = true;
+		}
+	};
+
+	/**
+	 * Constructor
+	 * @param safetyMargin how many milliseconds before the deadline the search should stop
+	 */
+	public SearchClock(int safetyMargin)
+	{
+		this.safetyMargin = safetyMargin;
+	}
+
+	/**
+	 * Starts timing a new search, cancelling any earlier one.
+	 * @param deadline how much time in milliseconds is allowed to make a move
+	 * @param start time in milliseconds when the move was asked for
+	 */
+	public synchronized void start(int deadline, long start)
+	{
+		if (alarm != null)
+			alarm.cancel(false);
+		stopped = false;
+
+		long left = start + deadline - safetyMargin - System.currentTimeMillis();
+		if (left <= 0)
+			stopped = true;
+		else
+			alarm = TIMER.schedule(stop, left, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Stops the current search early and cancels its timer.
+	 */
+	public synchronized void stop()
+	{
+		if (alarm != null)
+			alarm.cancel(false);
+		alarm = null;
+		stopped = true;
+	}
+
+	/**
+	 * @return true once the search should stop
+	 */
+	public boolean isStopped()
+	{
+		return stopped;
+	}
+
+	private static ScheduledExecutorService createTimer()
+	{
+		ScheduledThreadPoolExecutor timer = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r)
+			{
+				Thread thread = new Thread(r, "HAL search clock");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		timer.setRemoveOnCancelPolicy(true);
+		return timer;
+	}
+}
@@ -0,0 +1,346 @@
+import connectK.BoardModel;
+import connectK.Bitboard;
+
+/**
+ * Finds threats and junctions for a whole board at once with shifts of the
+ * bitboards BoardModel keeps.
+ *
+ * In a bitboard, stepping one space along a line is a shift by a fixed amount:
+ * 1 up a column, height + 1 across a row, and height + 2 or height along the two
+ * diagonals. So "the space s further along holds a piece" is the board shifted by
+ * s, and a test on k spaces of a line is k shifts and ANDs that answer it for
+ * every space together. The padding bit above each column is never set, which
+ * keeps lines from wrapping into the next column.
+ *
+ * A ThreatMap holds its own scratch boards and is meant for one thread.
+ */
+public class ThreatMap {
+
+	//kinds of threat counted by classify, indexed by SHARED | row parity
+	public static final int ODD_ROW = 0;
+	public static final int EVEN_ROW = 1;
+	public static final int SHARED = 2;
+
+	private final int width;
+	private final int height;
+	private final int k;
+	private final int[] steps;
+
+	//every space, rows 1, 3, 5... (counting from 1), rows 2, 4, 6..., and the top row
+	private final long[] cells;
+	private final long[] oddRows;
+	private final long[] evenRows;
+	private final long[] topRow;
+	//fillUp's masks: spaces at least 1, 2, 4... rows above the bottom
+	private final long[][] rowsFrom;
+
+	private final long[] empty;
+	private final long[] shifted;
+	private final long[] scratch;
+	private final long[] mine;
+	private final long[] theirs;
+	private final long[] myFill;
+	private final long[] theirFill;
+	private final long[][] runs;
+	private final long[] wordRuns;
+	//junctions' scratch: spaces owner holds or are empty, and for the line being counted,
+	//which spaces have every space open, no empty space yet or exactly one, and which
+	//spaces have at least one line
+	private final long[] open;
+	private final long[] allOpen;
+	private final long[] noEmpty;
+	private final long[] oneEmpty;
+	private final long[] oneLine;
+
+	/**
+	 * Constructor
+	 * @param state board whose size the map is for
+	 */
+	public ThreatMap(BoardModel state)
+	{
+		width = state.getWidth();
+		height = state.getHeight();
+		k = state.getkLength();
+		int stride = Bitboard.stride(height);
+		steps = new int[] {1, stride, stride + 1, stride - 1};
+
+		cells = Bitboard.rows(width, height, 0, 1);
+		oddRows = Bitboard.rows(width, height, 0, 2);
+		evenRows = Bitboard.rows(width, height, 1, 2);
+		topRow = Bitboard.rows(width, height, height - 1, height);
+		int fills = 0;
+		for (int d = 1; d < height; d <<= 1)
+			++fills;
+		rowsFrom = new long[fills][];
+		for (int i = 0, d = 1; i < fills; ++i, d <<= 1)
+			rowsFrom[i] = Bitboard.rows(width, height, d, 1);
+
+		int words = cells.length;
+		empty = new long[words];
+		shifted = new long[words];
+		scratch = new long[words];
+		mine = new long[words];
+		theirs = new long[words];
+		myFill = new long[words];
+		theirFill = new long[words];
+		runs = new long[Math.max(k, 1)][words];
+		wordRuns = new long[Math.max(k, 1)];
+		open = new long[words];
+		allOpen = new long[words];
+		noEmpty = new long[words];
+		oneEmpty = new long[words];
+		oneLine = new long[words];
+	}
+
+	/**
+	 * @param state a board
+	 * @return true if this map was built for a board of the same size and k
+	 */
+	public boolean fits(BoardModel state)
+	{
+		return state.getWidth() == width && state.getHeight() == height && state.getkLength() == k;
+	}
+
+	/**
+	 * Finds the empty spaces that would complete k in a row for player. For each
+	 * direction, a space completes a line when j pieces run below it and k - 1 - j
+	 * above it for some j.
+	 * @param state state of the game board
+	 * @param player player whose lines are completed
+	 * @param dst receives one bit per completing space
+	 */
+	public void completions(BoardModel state, byte player, long[] dst)
+	{
+		long[] pieces = state.bitboard(player);
+		emptySpaces(state);
+		java.util.Arrays.fill(dst, 0);
+		for (int s : steps)
+		{
+			//runs[t]: the t spaces after this one along the line all hold player's pieces
+			java.util.Arrays.fill(runs[0], -1L);
+			for (int t = 1; t < k; ++t)
+			{
+				Bitboard.shiftRight(pieces, t * s, shifted);
+				for (int w = 0; w < shifted.length; ++w)
+					runs[t][w] = runs[t - 1][w] & shifted[w];
+			}
+
+			//scratch: the j spaces before this one all hold player's pieces
+			java.util.Arrays.fill(scratch, -1L);
+			for (int j = 0; j < k; ++j)
+			{
+				if (j > 0)
+				{
+					Bitboard.shiftLeft(pieces, j * s, shifted);
+					for (int w = 0; w < shifted.length; ++w)
+						scratch[w] &= shifted[w];
+				}
+				long[] after = runs[k - 1 - j];
+				for (int w = 0; w < dst.length; ++w)
+					dst[w] |= scratch[w] & after[w];
+			}
+		}
+		for (int w = 0; w < dst.length; ++w)
+			dst[w] &= empty[w];
+	}
+
+	/**
+	 * Finds the spaces where player would win with the next move: completions that can
+	 * be played now, which with gravity on are the ones resting on a piece or the floor.
+	 * @param state state of the game board
+	 * @param player player to win
+	 * @param dst receives one bit per winning space
+	 * @return number of winning spaces
+	 */
+	public int wins(BoardModel state, byte player, long[] dst)
+	{
+		completions(state, player, dst);
+		if (state.gravity)
+		{
+			Bitboard.shiftLeft(empty, 1, shifted);
+			for (int w = 0; w < dst.length; ++w)
+				dst[w] &= ~shifted[w];
+		}
+		return Bitboard.count(dst);
+	}
+
+	/**
+	 * Counts the threats each player has with gravity on, by the kinds the even odd
+	 * strategy needs. A threat is an empty space that completes a line and sits atop
+	 * another empty space. It is shared when the other player has a threat at the same
+	 * height or lower in its column. Each column counts once for each kind.
+	 * @param state state of the game board
+	 * @param player player whose threats go in myKinds
+	 * @param myKinds receives player's threat counts, indexed by SHARED | ODD_ROW or EVEN_ROW
+	 * @param theirKinds receives the other player's threat counts, indexed the same way
+	 */
+	public void classify(BoardModel state, byte player, int[] myKinds, int[] theirKinds)
+	{
+		byte them = (byte)(player == 1 ? 2 : 1);
+		if (cells.length == 1)
+		{
+			classifyWord(state.bitboard(player)[0], state.bitboard(them)[0], myKinds, theirKinds);
+			return;
+		}
+		completions(state, player, mine);
+		completions(state, them, theirs);
+		Bitboard.shiftLeft(empty, 1, shifted);
+		for (int w = 0; w < mine.length; ++w)
+		{
+			mine[w] &= shifted[w];
+			theirs[w] &= shifted[w];
+		}
+
+		//a threat is shared where the other player's threats, filled upwards, reach it
+		System.arraycopy(mine, 0, myFill, 0, mine.length);
+		System.arraycopy(theirs, 0, theirFill, 0, theirs.length);
+		fillUp(myFill);
+		fillUp(theirFill);
+		tally(mine, theirFill, myKinds);
+		tally(theirs, myFill, theirKinds);
+	}
+
+	//classify for boards that fit in one word, on plain longs
+	private void classifyWord(long me, long you, int[] myKinds, int[] theirKinds)
+	{
+		long open = cells[0] & ~(me | you);
+		long playable = open << 1;
+		long myThreats = completionsWord(me) & open & playable;
+		long theirThreats = completionsWord(you) & open & playable;
+		long myFill = fillUpWord(myThreats);
+		long theirFill = fillUpWord(theirThreats);
+		for (int kind = 0; kind < 4; ++kind)
+		{
+			long rows = (kind & EVEN_ROW) != 0 ? evenRows[0] : oddRows[0];
+			boolean shared = (kind & SHARED) != 0;
+			myKinds[kind] = Long.bitCount(fillUpWord(myThreats & rows & (shared ? theirFill : ~theirFill)) & topRow[0]);
+			theirKinds[kind] = Long.bitCount(fillUpWord(theirThreats & rows & (shared ? myFill : ~myFill)) & topRow[0]);
+		}
+	}
+	
+	//completions for boards that fit in one word, before masking with the empty spaces
+	private long completionsWord(long pieces)
+	{
+		long[] after = wordRuns;
+		long found = 0;
+		for (int s : steps)
+		{
+			after[0] = -1L;
+			for (int t = 1; t < k; ++t)
+				after[t] = after[t - 1] & (t * s < 64 ? pieces >>> t * s : 0);
+			long before = -1L;
+			for (int j = 0; j < k; ++j)
+			{
+				if (j > 0)
+					before &= j * s < 64 ? pieces << j * s : 0;
+				found |= before & after[k - 1 - j];
+			}
+		}
+		return found;
+	}
+	
+	//fillUp for boards that fit in one word
+	private long fillUpWord(long b)
+	{
+		for (int i = 0, d = 1; i < rowsFrom.length; ++i, d <<= 1)
+			b |= (b << d) & rowsFrom[i][0];
+		return b;
+	}
+	
+	/**
+	 * Finds the spaces that are junctions for owner: two or more of the eight lines
+	 * starting at the space have, in their other k - 1 spaces, k - 2 of owner's pieces
+	 * and an empty space.
+	 * @param state state of the game board
+	 * @param owner player the junctions belong to
+	 * @param dst receives one bit per junction, whatever the space holds
+	 */
+	public void junctions(BoardModel state, byte owner, long[] dst)
+	{
+		emptySpaces(state);
+		long[] pieces = state.bitboard(owner);
+		for (int w = 0; w < open.length; ++w)
+			open[w] = pieces[w] | empty[w];
+
+		//dst gets the spaces with two or more lines, oneLine those with at least one
+		java.util.Arrays.fill(oneLine, 0);
+		java.util.Arrays.fill(dst, 0);
+		for (int s : steps)
+		{
+			for (int sign = 0; sign < 2; ++sign)
+			{
+				//count the empty spaces along the line, stopping at none, one or more
+				java.util.Arrays.fill(allOpen, -1L);
+				java.util.Arrays.fill(noEmpty, -1L);
+				java.util.Arrays.fill(oneEmpty, 0);
+				for (int i = 1; i < k; ++i)
+				{
+					shift(open, i * s, sign, shifted);
+					for (int w = 0; w < allOpen.length; ++w)
+						allOpen[w] &= shifted[w];
+					shift(empty, i * s, sign, shifted);
+					for (int w = 0; w < shifted.length; ++w)
+					{
+						oneEmpty[w] = (oneEmpty[w] & ~shifted[w]) | (noEmpty[w] & shifted[w]);
+						noEmpty[w] &= ~shifted[w];
+					}
+				}
+				for (int w = 0; w < dst.length; ++w)
+				{
+					long line = allOpen[w] & oneEmpty[w];
+					dst[w] |= oneLine[w] & line;
+					oneLine[w] |= line;
+				}
+			}
+		}
+		for (int w = 0; w < dst.length; ++w)
+			dst[w] &= cells[w];
+	}
+
+	//empty gets every space neither player holds
+	private void emptySpaces(BoardModel state)
+	{
+		long[] one = state.bitboard((byte) 1);
+		long[] two = state.bitboard((byte) 2);
+		for (int w = 0; w < empty.length; ++w)
+			empty[w] = cells[w] & ~(one[w] | two[w]);
+	}
+
+	//dst = the space d further along (sign 0) or d back (sign 1) is set in src
+	private static void shift(long[] src, int d, int sign, long[] dst)
+	{
+		if (sign == 0)
+			Bitboard.shiftRight(src, d, dst);
+		else
+			Bitboard.shiftLeft(src, d, dst);
+	}
+
+	//sets every space above a set space in the same column, doubling the distance each step
+	private void fillUp(long[] b)
+	{
+		for (int i = 0, d = 1; i < rowsFrom.length; ++i, d <<= 1)
+		{
+			Bitboard.shiftLeft(b, d, scratch);
+			long[] mask = rowsFrom[i];
+			for (int w = 0; w < b.length; ++w)
+				b[w] |= scratch[w] & mask[w];
+		}
+	}
+
+	//counts the columns holding each kind of threat
+	private void tally(long[] threats, long[] otherFill, int[] kinds)
+	{
+		for (int kind = 0; kind < 4; ++kind)
+		{
+			long[] rows = (kind & EVEN_ROW) != 0 ? evenRows : oddRows;
+			boolean shared = (kind & SHARED) != 0;
+			for (int w = 0; w < shifted.length; ++w)
+				shifted[w] = threats[w] & rows[w] & (shared ? otherFill[w] : ~otherFill[w]);
+			fillUp(shifted);
+			int count = 0;
+			for (int w = 0; w < shifted.length; ++w)
+				count += Long.bitCount(shifted[w] & topRow[w]);
+			kinds[kind] = count;
+		}
+	}
+}
@@ -0,0 +1,315 @@
+import connectK.BoardModel;
+import connectK.LineIndex;
+import java.awt.Point;
+
+/**
+ * Looks for forced wins on boards without gravity by following only threats.
+ *
+ * A four is a window holding k-1 of the attacker's pieces and none of the defender's,
+ * so the attacker wins on its last space unless the defender takes it first. A move
+ * that makes a four leaves the defender one reply, and a move that makes two fours
+ * wins outright. Searching only such moves (victory by continuous fours, VCF) goes
+ * many moves deep at the cost of a few nodes per move.
+ *
+ * Victory by continuous threats (VCT) also allows moves that make a three: the
+ * attacker has a space that would make two fours at once, so the defender must act
+ * now. The defender's replies are every space of the attacker's windows holding k-2
+ * or more pieces, which are all the spaces that can spoil the threat, and every move
+ * that makes a four of their own. A move anywhere else lets the attacker make the
+ * double four.
+ *
+ * Both searches only ever claim a win they have proven. They run on the window
+ * counts BoardModel keeps, and they have their own cache of positions already shown
+ * to be wins or to fail to a given depth.
+ */
+public class ThreatSearch {
+
+	private static final int WIN = 1;
+	private static final int FAIL = 0;
+	private static final int UNKNOWN = -1;
+
+	//mixed into cache keys so results for each attacker and search kind are kept apart
+	private static final long[] ATTACKER_SALT = {0x6A09E667F3BCC909L, 0xBB67AE8584CAA73BL};
+	private static final long VCT_SALT = 0x3C6EF372FE94F82BL;
+
+	private final SearchClock clock;
+	private final long[] cacheKeys;
+	private final int[] cacheData;
+	private final int cacheMask;
+
+	//spaces to try at each ply, and marks that keep a space from being added twice
+	private int[][] moves;
+	private int[] marks;
+	private int stamp;
+	private final int[] found = new int[2];
+	private int rootMove;
+
+	/**
+	 * Constructor
+	 * @param cacheEntries number of cached results; rounded down to a power of two
+	 * @param safetyMargin how many milliseconds before its deadline the search gives up
+	 */
+	public ThreatSearch(int cacheEntries, int safetyMargin)
+	{
+		int size = Integer.highestOneBit(Math.max(2, cacheEntries));
+		cacheKeys = new long[size];
+		cacheData = new int[size];
+		cacheMask = size - 1;
+		clock = new SearchClock(safetyMargin);
+	}
+
+	/**
+	 * Searches for a forced win, first by fours alone and then by fours and threes,
+	 * one attacking move deeper at a time.
+	 * @param state state of the game board, without gravity; returned unchanged
+	 * @param attacker player to move
+	 * @param maxDepth most attacking moves a win may take
+	 * @param deadline how much time in milliseconds the search may take
+	 * @param start time when the move was asked for
+	 * @return first move of a forced win, or null if none was found
+	 */
+	public Point findWin(BoardModel state, byte attacker, int maxDepth, int deadline, long start)
+	{
+		clock.start(deadline, start);
+		state.trackWindows();
+		int cells = state.getWidth() * state.getHeight();
+		if (moves == null || marks.length != cells)
+		{
+			moves = new int[2 * maxDepth + 3][cells];
+			marks = new int[cells];
+		}
+		else if (moves.length < 2 * maxDepth + 3)
+			moves = new int[2 * maxDepth + 3][cells];
+
+		byte defender = (byte)(attacker == 1 ? 2 : 1);
+		int height = state.getHeight();
+		try
+		{
+			for (int pass = 0; pass < 2; ++pass)
+			{
+				boolean vct = pass == 1;
+				if (vct && state.getkLength() < 4)
+					break;
+				for (int depth = 1; depth <= maxDepth; ++depth)
+				{
+					int result = attack(state, attacker, defender, depth, vct, 0);
+					if (result == WIN)
+						return new Point(rootMove / height, rootMove % height);
+					if (result == UNKNOWN)
+						return null;
+				}
+			}
+			return null;
+		}
+		finally
+		{
+			clock.stop();
+		}
+	}
+
+	//attacker to move: WIN if some threat forces a win within depth attacking moves
+	private int attack(BoardModel state, byte a, byte d, int depth, boolean vct, int ply)
+	{
+		if (clock.isStopped())
+			return UNKNOWN;
+		int k = state.getkLength();
+		if (state.openWindows(a, k - 1) > 0)
+		{
+			winSpaces(state, a, d);
+			rootMove = found[0];
+			return WIN;
+		}
+		if (depth == 0)
+			return FAIL;
+
+		//a four of the defender's must be blocked, and the block must be a threat itself
+		int block = -1;
+		if (state.openWindows(d, k - 1) > 0)
+		{
+			if (winSpaces(state, d, a) > 1)
+				return FAIL;
+			block = found[0];
+		}
+
+		long key = state.zobristKey() ^ ATTACKER_SALT[a - 1] ^ (vct ? VCT_SALT : 0);
+		int slot = (int) key & cacheMask;
+		if (ply > 0 && cacheKeys[slot] == key)
+		{
+			int data = cacheData[slot];
+			if (data == WIN)
+				return WIN;
+			if (data >>> 1 >= depth)
+				return FAIL;
+		}
+
+		int[] list = moves[ply];
+		int n;
+		if (block >= 0)
+		{
+			list[0] = block;
+			n = 1;
+		}
+		else
+		{
+			++stamp;
+			n = collect(state, a, d, k - 2, k - 2, list, 0);
+			if (vct)
+				n = collect(state, a, d, k - 3, k - 3, list, n);
+		}
+
+		int height = state.getHeight();
+		for (int i = 0; i < n; ++i)
+		{
+			int move = list[i];
+			state.makeMove(move / height, move % height, a);
+			int result = defend(state, a, d, depth, vct, ply + 1);
+			state.unmakeMove();
+			if (result == UNKNOWN)
+				return UNKNOWN;
+			if (result == WIN)
+			{
+				if (ply == 0)
+					rootMove = move;
+				cacheKeys[slot] = key;
+				cacheData[slot] = WIN;
+				return WIN;
+			}
+		}
+
+		cacheKeys[slot] = key;
+		cacheData[slot] = depth << 1 | FAIL;
+		return FAIL;
+	}
+
+	//defender to move after the attacker's threat: WIN if every reply still loses
+	private int defend(BoardModel state, byte a, byte d, int depth, boolean vct, int ply)
+	{
+		int k = state.getkLength();
+		if (state.openWindows(d, k - 1) > 0)
+			return FAIL;
+
+		int fours = state.openWindows(a, k - 1) > 0 ? winSpaces(state, a, d) : 0;
+		if (fours > 1)
+			return WIN;
+
+		int height = state.getHeight();
+		if (fours == 1)
+		{
+			int block = found[0];
+			state.makeMove(block / height, block % height, d);
+			int result = attack(state, a, d, depth - 1, vct, ply + 1);
+			state.unmakeMove();
+			return result;
+		}
+
+		if (!vct || !hasDoubleFour(state, a, d))
+			return FAIL;
+
+		int[] list = moves[ply];
+		++stamp;
+		int n = collect(state, a, d, k - 2, k - 1, list, 0);
+		n = collect(state, d, a, k - 2, k - 2, list, n);
+		for (int i = 0; i < n; ++i)
+		{
+			state.makeMove(list[i] / height, list[i] % height, d);
+			int result = attack(state, a, d, depth - 1, vct, ply + 1);
+			state.unmakeMove();
+			if (result != WIN)
+				return result;
+		}
+		return WIN;
+	}
+
+	/**
+	 * Adds the empty spaces of player p's windows that hold from low to high of p's
+	 * pieces and none of the other player's, skipping spaces already marked this stamp.
+	 * @return number of spaces in list
+	 */
+	private int collect(BoardModel state, byte p, byte other, int low, int high, int[] list, int n)
+	{
+		if (low < 1)
+			return n;
+		LineIndex lines = state.lineIndex();
+		int[] mine = state.windowCounts(p);
+		int[] theirs = state.windowCounts(other);
+		int k = lines.k;
+		for (int w = 0; w < lines.windowCount; ++w)
+		{
+			if (mine[w] < low || mine[w] > high || theirs[w] != 0)
+				continue;
+			for (int i = w * k; i < w * k + k; ++i)
+			{
+				int cell = lines.windowCells[i];
+				if (state.getCell(cell) == 0 && marks[cell] != stamp)
+				{
+					marks[cell] = stamp;
+					list[n++] = cell;
+				}
+			}
+		}
+		return n;
+	}
+
+	/**
+	 * Finds the spaces player p wins on next move, keeping up to two different ones in found.
+	 * @return 0, 1 or 2 (meaning two or more)
+	 */
+	private int winSpaces(BoardModel state, byte p, byte other)
+	{
+		LineIndex lines = state.lineIndex();
+		int[] mine = state.windowCounts(p);
+		int[] theirs = state.windowCounts(other);
+		int k = lines.k;
+		int n = 0;
+		for (int w = 0; w < lines.windowCount && n < 2; ++w)
+		{
+			if (mine[w] != k - 1 || theirs[w] != 0)
+				continue;
+			for (int i = w * k; i < w * k + k; ++i)
+			{
+				int cell = lines.windowCells[i];
+				if (state.getCell(cell) == 0 && (n == 0 || found[0] != cell))
+					found[n++] = cell;
+			}
+		}
+		return n;
+	}
+
+	//true if player p has a space that would make two fours with different winning spaces
+	private boolean hasDoubleFour(BoardModel state, byte p, byte other)
+	{
+		LineIndex lines = state.lineIndex();
+		int[] mine = state.windowCounts(p);
+		int[] theirs = state.windowCounts(other);
+		int k = lines.k;
+		for (int w = 0; w < lines.windowCount; ++w)
+		{
+			if (mine[w] != k - 2 || theirs[w] != 0)
+				continue;
+			for (int i = w * k; i < w * k + k; ++i)
+			{
+				int cell = lines.windowCells[i];
+				if (state.getCell(cell) != 0)
+					continue;
+				int first = -1;
+				for (int j = lines.cellWindowStart[cell]; j < lines.cellWindowStart[cell + 1]; ++j)
+				{
+					int v = lines.cellWindows[j];
+					if (mine[v] != k - 2 || theirs[v] != 0)
+						continue;
+					for (int c = v * k; c < v * k + k; ++c)
+					{
+						int space = lines.windowCells[c];
+						if (space == cell || state.getCell(space) != 0)
+							continue;
+						if (first == -1)
+							first = space;
+						else if (space != first)
+							return true;
+					}
+				}
+			}
+		}
+		return false;
+	}
+}
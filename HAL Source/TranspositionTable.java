@@ -0,0 +1,151 @@
+/**
+ * Fixed-size transposition table for HAL's alpha-beta search, built on two
+ * parallel long arrays so it creates no objects after construction.
+ *
+ * The table is split into buckets of two slots. The first slot keeps the
+ * deepest result seen for its bucket, the second is always overwritten, so
+ * shallow results near the leaves cannot push out expensive ones near the root.
+ * Entries left over from earlier moves of the game are kept until a newer
+ * search needs the slot.
+ *
+ * The table may be shared by several search threads without locking. Each slot
+ * stores key ^ data next to data, so a slot torn by two threads writing at once
+ * no longer matches its key and reads as a miss instead of returning a mixed entry.
+ *
+ * Each entry is a key and a packed data word:
+ * bits 0-31 score, 32-39 depth, 40-41 bound type, 42-47 search generation,
+ * 48-63 best move + 1 (x * height + y, 0 when there is none).
+ */
+public class TranspositionTable {
+
+	public static final int EXACT = 1;
+	public static final int LOWER = 2;
+	public static final int UPPER = 3;
+	public static final int NO_MOVE = -1;
+
+	private static final int ENTRY_BYTES = 16;
+
+	private final long[] keys;
+	private final long[] data;
+	private final int bucketMask;
+	private int generation;
+
+	/**
+	 * Constructor
+	 * @param megabytes memory budget for the table; rounded down to a power of two entries
+	 */
+	public TranspositionTable(int megabytes)
+	{
+		long entries = Math.max(2, (long) megabytes * 1024 * 1024 / ENTRY_BYTES);
+		int buckets = Integer.highestOneBit((int) Math.min(entries / 2, 1 << 29));
+		keys = new long[buckets * 2];
+		data = new long[buckets * 2];
+		bucketMask = buckets - 1;
+	}
+
+	/**
+	 * Marks the start of a new search so entries from older ones become the first
+	 * to be replaced.
+	 */
+	public void newSearch()
+	{
+		generation = (generation + 1) & 63;
+	}
+
+	/**
+	 * Looks up a position.
+	 * @param key Zobrist key of the position
+	 * @return packed entry for the position, or 0 if it is not in the table
+	 */
+	public long probe(long key)
+	{
+		int slot = ((int) key & bucketMask) << 1;
+		long entry = data[slot];
+		if (entry != 0 && (keys[slot] ^ entry) == key)
+			return entry;
+		entry = data[slot + 1];
+		if (entry != 0 && (keys[slot + 1] ^ entry) == key)
+			return entry;
+		return 0;
+	}
+
+	/**
+	 * Records the result of searching a position.
+	 * @param key Zobrist key of the position
+	 * @param depth remaining search depth the score was computed with
+	 * @param score score of the position
+	 * @param bound EXACT, LOWER or UPPER
+	 * @param move best move found (x * height + y) or NO_MOVE
+	 */
+	public void store(long key, int depth, int score, int bound, int move)
+	{
+		int slot = ((int) key & bucketMask) << 1;
+		long packed = (score & 0xFFFFFFFFL)
+				| ((long) Math.min(depth, 255) << 32)
+				| ((long) bound << 40)
+				| ((long) generation << 42)
+				| ((long) (move + 1) << 48);
+
+		long old = data[slot];
+		if ((keys[slot] ^ old) == key || old == 0 || depth(old) <= depth || generation(old) != generation)
+		{
+			keys[slot] = key ^ packed;
+			data[slot] = packed;
+		}
+		else
+		{
+			keys[slot + 1] = key ^ packed;
+			data[slot + 1] = packed;
+		}
+	}
+
+	/**
+	 * Empties the table.
+	 */
+	public void clear()
+	{
+		java.util.Arrays.fill(keys, 0);
+		java.util.Arrays.fill(data, 0);
+	}
+
+	/**
+	 * @param entry packed entry returned by probe
+	 * @return score of the entry
+	 */
+	public static int score(long entry)
+	{
+		return (int) entry;
+	}
+
+	/**
+	 * @param entry packed entry returned by probe
+	 * @return depth the entry was searched to
+	 */
+	public static int depth(long entry)
+	{
+		return (int) (entry >>> 32) & 0xFF;
+	}
+
+	/**
+	 * @param entry packed entry returned by probe
+	 * @return EXACT, LOWER or UPPER
+	 */
+	public static int bound(long entry)
+	{
+		return (int) (entry >>> 40) & 3;
+	}
+
+	/**
+	 * @param entry packed entry returned by probe
+	 * @return best move stored with the entry, or NO_MOVE
+	 */
+	public static int move(long entry)
+	{
+		return (int) (entry >>> 48) - 1;
+	}
+
+	private static int generation(long entry)
+	{
+		return (int) (entry >>> 42) & 63;
+	}
+}
@@ -0,0 +1,40 @@
+import connectK.BoardModel;
+import java.io.File;
+
+/**
+ * Test harness, not part of the AI: builds small opening books with gravity on and
+ * off through OpeningBook.main, opens them again, and checks the book move for the
+ * empty board is there and legal.
+ *
+ * Usage: java -cp <HAL classes>:<test classes> BookBuildCheck
+ */
+public class BookBuildCheck {
+
+	@SuppressWarnings("deprecation")
+	public static void main(String[] args) throws Exception
+	{
+		int failures = 0;
+		for (int gravity = 0; gravity <= 1; ++gravity)
+		{
+			int width = 7;
+			int height = gravity == 1 ? 6 : 7;
+			File file = File.createTempFile("hal-book", ".bin");
+			file.deleteOnExit();
+			OpeningBook.main(new String[] {"" + width, "" + height, "4", "" + gravity, "2", "100", file.getPath(), "1"});
+
+			BoardModel empty = BoardModel.newBoard(width, height, 4, gravity == 1);
+			OpeningBook book = OpeningBook.open(file.getPath(), empty);
+			int move = book == null ? TranspositionTable.NO_MOVE : book.move(empty.canonicalKey());
+			int cell = move == TranspositionTable.NO_MOVE ? -1 : empty.fromCanonical(move);
+			boolean legal = cell >= 0 && cell < width * height
+					&& (gravity == 0 || cell % height == 0);
+			System.out.println("gravity " + (gravity == 1 ? "on" : "off") + ": "
+					+ (book == null ? "book did not open" : book.size() + " positions, empty board move " + cell)
+					+ (legal ? "" : " FAILED"));
+			if (!legal)
+				++failures;
+		}
+		if (failures > 0)
+			System.exit(1);
+	}
+}
@@ -0,0 +1,611 @@
+import connectK.BoardModel;
+import connectK.LineIndex;
+import java.awt.Point;
+import java.util.Random;
+
+/**
+ * Test harness, not part of the AI: checks HALAI.hFunc against the evaluator it
+ * replaced, which found every threat one window at a time. Both are run on a corpus
+ * of random positions, with and without gravity, and any position where they differ
+ * is printed.
+ *
+ * The one intended difference is the gravity-off junction bonus. The reference kept
+ * only the answer for the last space of each kind in board order; hFunc credits a
+ * junction anywhere on the board. Where the two rules disagree, the reference's
+ * score is corrected by the difference in bonus before it is compared. Every
+ * position is also mirrored and, when square, rotated, and hFunc must give each the
+ * same score, since the search shares scores between them.
+ *
+ * Usage: java -cp <HAL classes>:<test classes> EvalCrossCheck [positions]
+ */
+public class EvalCrossCheck {
+
+	private static final int WIN_VAL = 1000;
+	private static final int LOSE_VAL = -1000;
+
+	@SuppressWarnings("deprecation")
+	public static void main(String[] args)
+	{
+		int positions = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+		Random random = new Random(11);
+		int diffs = 0;
+		int changed = 0;
+		for (int t = 0; t < positions; ++t)
+		{
+			boolean gravity = t % 4 != 0;
+			int width = 4 + random.nextInt(12);
+			int height = 4 + random.nextInt(10);
+			int k = 3 + random.nextInt(Math.min(4, Math.min(width, height) - 2));
+			BoardModel state = BoardModel.newBoard(width, height, k, gravity);
+			byte turn = 1;
+			int moves = random.nextInt(width * height);
+			for (int i = 0; i < moves; ++i)
+			{
+				int x = random.nextInt(width);
+				int y = gravity ? state.columnHeight(x) : random.nextInt(height);
+				if (y >= height || state.getSpace(x, y) != 0)
+					continue;
+				BoardModel next = state.placePiece(new Point(x, y), turn);
+				if (next.winner() != -1 && random.nextInt(3) > 0)
+					break;
+				state = next;
+				turn = (byte)(turn == 1 ? 2 : 1);
+			}
+			
+			byte player = (byte)(1 + random.nextInt(2));
+			HALAI ai = new HALAI(player, state);
+			int score = ai.hFunc(state);
+			int reference = referenceScore(ai, player, state);
+			int change = gravity || reference == WIN_VAL || reference == LOSE_VAL ? 0 
+					: junctionChange(ai, player, state);
+			if (change != 0)
+				++changed;
+			//a raw total of 0 was reported as 1 or -1, so undo that before adding the change
+			boolean matches = score == settle(player, reference + change)
+					|| (reference == settle(player, 0) && score == settle(player, change));
+			if (!matches)
+			{
+				++diffs;
+				System.out.println("hFunc " + score + " reference " + reference + " junction change " + change 
+						+ " for player " + player + " with k " + k + (gravity ? ", gravity on" : ", gravity off") 
+						+ "\n" + state);
+			}
+			
+			//mirror left-right, then without gravity also top-bottom, and transpose square boards
+			int transforms = gravity ? 1 : width == height ? 3 : 2;
+			for (int f = 0; f < transforms; ++f)
+			{
+				BoardModel mirrored = transform(state, f);
+				int mirroredScore = new HALAI(player, mirrored).hFunc(mirrored);
+				if (mirroredScore != score)
+				{
+					++diffs;
+					System.out.println("hFunc " + score + " but " + mirroredScore + " after transform " + f 
+							+ " for player " + player + " with k " + k + "\n" + state);
+				}
+			}
+		}
+		System.out.println(changed + " positions scored differently by the junction rule");
+		System.out.println(diffs + " of " + positions + " positions differ");
+		if (diffs > 0)
+			System.exit(1);
+	}
+
+	//0 mirrors the board left-right, 1 top-bottom, 2 swaps x and y
+	@SuppressWarnings("deprecation")
+	private static BoardModel transform(BoardModel state, int f)
+	{
+		int width = state.getWidth();
+		int height = state.getHeight();
+		BoardModel result = BoardModel.newBoard(width, height, state.getkLength(), state.gravity);
+		for (int x = 0; x < width; ++x)
+			for (int y = 0; y < height; ++y)
+			{
+				byte space = state.getSpace(x, y);
+				if (space == 0)
+					continue;
+				Point to = f == 0 ? new Point(width - 1 - x, y) 
+						: f == 1 ? new Point(x, height - 1 - y) : new Point(y, x);
+				result = result.placePiece(to, space);
+			}
+		return result;
+	}
+
+	//the reference's way of reporting a total
+	private static int settle(byte player, int total)
+	{
+		if (total == 0)
+			return player == 2 ? 1 : -1;
+		return total;
+	}
+
+	/**
+	 * How much hFunc's junction rule changes the reference's gravity-off total.
+	 * @param ai AI whose junction tests are used
+	 * @param player player the score is for
+	 * @param state state of the game that is being considered
+	 * @return player's change in bonus less the opponent's
+	 */
+	private static int junctionChange(HALAI ai, byte player, BoardModel state)
+	{
+		byte them = (byte)(player == 1 ? 2 : 1);
+		return junctionBonus(ai, player, player, state, true) - junctionBonus(ai, player, player, state, false)
+				- junctionBonus(ai, player, them, state, true) + junctionBonus(ai, player, them, state, false);
+	}
+
+	/**
+	 * @param ai AI whose junction tests are used
+	 * @param player player the score is for
+	 * @param owner player the junctions belong to
+	 * @param state state of the game that is being considered
+	 * @param anywhere true for hFunc's rule, false to keep only the last space of each kind
+	 * @return 100 for a junction on one of owner's pieces, 50 for one on an empty space, or 0
+	 */
+	private static int junctionBonus(HALAI ai, byte player, byte owner, BoardModel state, boolean anywhere)
+	{
+		boolean onPiece = false;
+		boolean onEmpty = false;
+		for (int i = 0; i < state.getWidth(); ++i)
+			for (int j = 0; j < state.getHeight(); ++j)
+			{
+				byte space = state.getSpace(i, j);
+				if (space != owner && space != 0)
+					continue;
+				boolean junction = owner == player ? ai.isJunction(state, i, j) : ai.isTheirJunction(state, i, j);
+				if (space == owner)
+					onPiece = anywhere ? onPiece | junction : junction;
+				else
+					onEmpty = anywhere ? onEmpty | junction : junction;
+			}
+		return onPiece ? 100 : onEmpty ? 50 : 0;
+	}
+
+	/**
+	 * The evaluator hFunc replaced, as it was.
+	 * @param ai AI whose junction tests are used
+	 * @param player player the score is for
+	 * @param state state of the game that is being considered
+	 * @return a number representing how good or bad this state is for player
+	 */
+	static int referenceScore(HALAI ai, byte player, BoardModel state)
+	{
+		if (state.gravity)
+		{
+			int kLength = state.getkLength();
+			int width = state.getWidth();
+			int height = state.getHeight();
+			int myTotal = 0;
+			int theirTotal = 0;
+			
+			//groups of different length rows, columns, or diagonals
+			int[] myGroups = new int[kLength + 1];
+			int myGroupsLength = myGroups.length;
+			int[] theirGroups = new int[kLength + 1];
+			int theirGroupsLength = theirGroups.length;
+			
+			//Variables for threat spaces
+			int domain = state.getHeight() * state.getWidth();
+			Point[] myThreats = new Point[domain];
+			int myThreatsSize = 0;
+			int theirThreatsSize = 0;
+			Point[] theirThreats = new Point[domain];
+			
+			//Even odd strategy variables
+			int myUnsharedOddThreats = 0;
+			int theirUnsharedOddThreats = 0;
+			int myUnsharedEvenThreats = 0;
+			int theirUnsharedEvenThreats = 0;
+			int mySharedOddThreats = 0;
+			int mySharedEvenThreats = 0;
+			int theirSharedOddThreats = 0;
+			int theirSharedEvenThreats = 0;
+
+			/*
+			 * First we check how many different consecutive squares the AI and the opponent 
+			 * has in a row, column, or diagonal and what length they are.
+			 */
+			state.trackWindows();
+			LineIndex lines = state.lineIndex();
+			byte them = (byte)(player == 1? 2 : 1);
+			int[] myCounts = state.windowCounts(player);
+			int[] theirCounts = state.windowCounts(them);
+			for (int i = 1; i <= kLength; ++i)
+			{
+				myGroups[i] = state.openWindows(player, i);
+				theirGroups[i] = state.openWindows(them, i);
+			}
+			
+			//only windows one piece short of a win are opened up to look for threats
+			for (int w = 0; w < lines.windowCount; ++w)
+			{
+				int myNum = myCounts[w];
+				int theirNum = theirCounts[w];
+				if (!(theirNum == 0 && myNum == kLength - 1) && !(myNum == 0 && theirNum == kLength - 1))
+					continue;
+				
+				int lastEmpty = -1;
+				for (int i = w * kLength; i < w * kLength + kLength; ++i)
+				{
+					if (state.getCell(lines.windowCells[i]) == 0)
+						lastEmpty = lines.windowCells[i];
+				}
+				
+				//the last empty square of the window can't be played yet
+				if (!(lastEmpty % height - 1 >= 0 && state.getCell(lastEmpty - 1) == 0))
+					continue;
+				
+				Point space = new Point(lastEmpty / height, lastEmpty % height);
+				if (theirNum == 0)
+				{
+					boolean add = true;
+					for (int l = 0; l < myThreatsSize; ++l)
+					{
+						if (space.equals(myThreats[l]))
+							add = false;
+					}
+					if (add)
+					{
+						myThreats[myThreatsSize] = space;
+						++myThreatsSize;
+					}
+				}
+				
+				if (myNum == 0)
+				{
+					boolean add = true;
+					for (int l = 0; l < theirThreatsSize; ++l)
+					{
+						if (space.equals(theirThreats[l]))
+							add = false;
+					}
+					if (add)
+					{
+						theirThreats[theirThreatsSize] = space;
+						++theirThreatsSize;
+					}
+				}
+			}
+			
+			/*
+			 * Any empty square that sits atop another empty square and is also the final 
+			 * square needed for a win is called a threat. This next part figures out how many threats 
+			 * each player has. It also figures out if the threat is on an even or odd row and if 
+			 * the threat is shared or not (essential for certain strategies).
+			 */
+			//Get my threats
+			//4 arrays
+			boolean[] myHasUnsharedOdd = new boolean[width];
+			boolean[] myHasUnsharedEven = new boolean[width];
+			boolean[] myHasSharedOdd = new boolean[width];
+			boolean[] myHasSharedEven = new boolean[width];
+			for (int i = 0; i < myThreatsSize; ++i)
+			{
+				boolean shared = false;
+				
+				for (int j = 0; j < theirThreatsSize; ++j)
+				{
+					if (myThreats[i].x == theirThreats[j].x && myThreats[i].y >= theirThreats[j].y)
+						shared = true;
+				}
+				
+				if (shared)
+				{
+					if ((myThreats[i].y + 1) % 2 == 1 && !myHasSharedOdd[myThreats[i].x])
+					{
+						++mySharedOddThreats;
+						myHasSharedOdd[myThreats[i].x] = true;
+					}
+					else if ((myThreats[i].y + 1) % 2 == 0 && !myHasSharedEven[myThreats[i].x])
+					{
+						++mySharedEvenThreats;
+						myHasSharedEven[myThreats[i].x] = true;
+					}
+				}
+				else
+				{
+					if ((myThreats[i].y + 1) % 2 == 1 && !myHasUnsharedOdd[myThreats[i].x])
+					{
+						++myUnsharedOddThreats;
+						myHasUnsharedOdd[myThreats[i].x] = true;
+					}
+					else if ((myThreats[i].y + 1) % 2 == 0 && !myHasUnsharedEven[myThreats[i].x])
+					{
+						++myUnsharedEvenThreats;
+						myHasUnsharedEven[myThreats[i].x] = true;
+					}
+				}
+			}
+			
+			//get their threats
+			//4 arrays
+			boolean[] themHasUnsharedOdd = new boolean[width];
+			boolean[] themHasUnsharedEven = new boolean[width];
+			boolean[] themHasSharedOdd = new boolean[width];
+			boolean[] themHasSharedEven = new boolean[width];
+			for (int i = 0; i < theirThreatsSize; ++i)
+			{
+				boolean shared = false;
+				
+				for (int j = 0; j < myThreatsSize; ++j)
+				{
+					if (theirThreats[i].x == myThreats[j].x && theirThreats[i].y >= myThreats[j].y)
+						shared = true;
+				}
+				
+				if (shared)
+				{
+					if ((theirThreats[i].y + 1) % 2 == 1 && !themHasSharedOdd[theirThreats[i].x])
+					{
+						++theirSharedOddThreats;
+						themHasSharedOdd[theirThreats[i].x] = true;
+					}
+					else if ((theirThreats[i].y + 1) % 2 == 0 && !themHasSharedEven[theirThreats[i].x])
+					{
+						++theirSharedEvenThreats;
+						themHasSharedEven[theirThreats[i].x] = true;
+					}
+				}
+				else
+				{
+					if ((theirThreats[i].y + 1) % 2 ==1 && !themHasUnsharedOdd[theirThreats[i].x])
+					{
+						++theirUnsharedOddThreats;
+						themHasUnsharedOdd[theirThreats[i].x] = true;
+					}
+					else if ((theirThreats[i].y + 1) % 2 == 0 && !themHasUnsharedEven[theirThreats[i].x])
+					{
+						++theirUnsharedEvenThreats;
+						themHasUnsharedEven[theirThreats[i].x] = true;
+					}
+				}
+			}
+			
+			
+			/*
+			 * This is for the even odd strategy. Having certain threats on certain rows will result 
+			 * in a value bonus or penalty.
+			 */
+			//AI is first player
+			if (player == 1)
+			{
+				if (height % 2 == 0)
+				{
+					//What I need to win
+					if (((myUnsharedOddThreats - 1) == theirUnsharedOddThreats) 
+							|| ((myUnsharedOddThreats == theirUnsharedOddThreats) && (mySharedOddThreats % 2 == 1))
+							|| (theirUnsharedOddThreats == 0 && (mySharedOddThreats + myUnsharedOddThreats) % 2 == 1))
+						myTotal += 100;
+
+					//What he needs to win
+					if (((myUnsharedOddThreats + mySharedOddThreats) == 0 && (theirSharedEvenThreats + theirUnsharedEvenThreats) > 0)
+							|| ((theirUnsharedOddThreats - 2) == myUnsharedOddThreats)
+							|| ((myUnsharedOddThreats == theirUnsharedOddThreats) && (theirSharedOddThreats % 2 == 0 && theirSharedOddThreats > 0))
+							|| ((theirUnsharedOddThreats - 1) == myUnsharedOddThreats && theirSharedOddThreats > 0)
+							|| (myUnsharedOddThreats == 0 && (theirUnsharedOddThreats == 1 && theirSharedOddThreats > 0))
+							|| (((theirUnsharedOddThreats + theirSharedOddThreats) % 2 == 0 && (theirUnsharedOddThreats + theirSharedOddThreats) > 0) && myUnsharedOddThreats == 0))
+						theirTotal += 100;
+				}
+				else if (domain % 2 == 0 && height % 2 == 1)
+				{
+					//what i need to win
+					if (((myUnsharedEvenThreats - 1) == theirUnsharedEvenThreats)
+							|| (mySharedEvenThreats % 2 == 1)
+							|| ((mySharedEvenThreats + myUnsharedEvenThreats) == 1 && (theirSharedOddThreats + theirUnsharedOddThreats) == 1))
+						myTotal += 100;
+
+					//what he needs to win
+					if (((theirSharedOddThreats + theirUnsharedOddThreats) > 0)
+							|| (((theirSharedEvenThreats + theirUnsharedEvenThreats) % 2 == 0 && (theirSharedEvenThreats + theirUnsharedEvenThreats) > 0)
+							&& (((theirUnsharedEvenThreats - 2) == myUnsharedEvenThreats)
+									|| (theirSharedEvenThreats == mySharedEvenThreats))))
+						theirTotal += 100;
+
+				}
+				else if (domain % 2 == 1)
+				{
+					if (((mySharedOddThreats + myUnsharedOddThreats) > 0)
+							|| (((mySharedEvenThreats + myUnsharedEvenThreats) % 2 == 0 && (mySharedEvenThreats + myUnsharedEvenThreats) > 0)
+							&& ((myUnsharedEvenThreats - 2 == theirUnsharedEvenThreats)
+									|| (mySharedEvenThreats == theirSharedEvenThreats))))
+						myTotal += 100;
+					
+					if ((theirUnsharedEvenThreats - 1 == myUnsharedEvenThreats)
+							|| (theirSharedEvenThreats % 2 == 1)
+							|| ((theirSharedEvenThreats + theirUnsharedEvenThreats) == 1
+							&& (mySharedOddThreats + myUnsharedOddThreats) == 1))
+						theirTotal += 100;
+				}
+			}
+			//AI is second player
+			else
+			{
+				if (height % 2 == 0)
+				{
+					//What he needs to win
+					if (((theirUnsharedOddThreats - 1) == myUnsharedOddThreats) 
+							|| ((theirUnsharedOddThreats == myUnsharedOddThreats) && (theirSharedOddThreats % 2 == 1))
+							|| (myUnsharedOddThreats == 0 && (theirSharedOddThreats + theirUnsharedOddThreats) % 2 == 1))
+						theirTotal += 100;
+
+					//What i need to win
+					if (((theirUnsharedOddThreats + theirSharedOddThreats) == 0 && (mySharedEvenThreats + myUnsharedEvenThreats) > 0)
+							|| ((myUnsharedOddThreats - 2) == theirUnsharedOddThreats)
+							|| ((theirUnsharedOddThreats == myUnsharedOddThreats) && (mySharedOddThreats % 2 == 0 && mySharedOddThreats > 0))
+							|| ((myUnsharedOddThreats - 1) == theirUnsharedOddThreats && mySharedOddThreats > 0)
+							|| (theirUnsharedOddThreats == 0 && (myUnsharedOddThreats == 1 && mySharedOddThreats > 0))
+							|| (((myUnsharedOddThreats + mySharedOddThreats) % 2 == 0 && (myUnsharedOddThreats + mySharedOddThreats) > 0) && theirUnsharedOddThreats == 0))
+						myTotal += 100;
+				}
+				else if (domain % 2 == 0 && height % 2 == 1)
+				{
+					//what he needs to win
+					if (((theirUnsharedEvenThreats - 1) == myUnsharedEvenThreats)
+							|| (theirSharedEvenThreats % 2 == 1)
+							|| ((theirSharedEvenThreats + theirUnsharedEvenThreats) == 1 && (mySharedOddThreats + myUnsharedOddThreats) == 1))
+						theirTotal += 100;
+
+					//what i need to win
+					if (((mySharedOddThreats + myUnsharedOddThreats) > 0)
+							|| (((mySharedEvenThreats + myUnsharedEvenThreats) % 2 == 0 && (mySharedEvenThreats + myUnsharedEvenThreats) > 0)
+							&& (((myUnsharedEvenThreats - 2) == theirUnsharedEvenThreats)
+									|| (mySharedEvenThreats == theirSharedEvenThreats))))
+						myTotal += 100;
+				}
+				else if (domain % 2 == 1)
+				{
+					//what they need
+					if (((theirSharedOddThreats + theirUnsharedOddThreats) > 0)
+							|| (((theirSharedEvenThreats + theirUnsharedEvenThreats) % 2 == 0 && (theirSharedEvenThreats + theirUnsharedEvenThreats) > 0)
+							&& ((theirUnsharedEvenThreats - 2 == myUnsharedEvenThreats)
+									|| (theirSharedEvenThreats == mySharedEvenThreats))))
+						theirTotal += 100;
+					
+					//what i need
+					if ((myUnsharedEvenThreats - 1 == theirUnsharedEvenThreats)
+							|| (mySharedEvenThreats % 2 == 1)
+							|| ((mySharedEvenThreats + myUnsharedEvenThreats) == 1
+							&& (theirSharedOddThreats + theirUnsharedOddThreats) == 1))
+						myTotal += 100;
+				}
+			}
+			
+			/*
+			 * This gets the total score for both players, scaling longer groupings 
+			 * for more points.
+			 */
+			//get my total
+			int scale = 1;
+			for (int i = 2; i < myGroupsLength; ++i)
+			{
+				myTotal += (myGroups[i] * scale);
+				++scale;
+			}
+
+			//get their total
+			scale = 1;
+			for (int i = 2; i < theirGroupsLength; ++i)
+			{
+				theirTotal += (theirGroups[i] * scale);
+				++scale;
+			}
+
+			if (theirGroups[kLength] > 0)
+				return LOSE_VAL;
+			else if (myGroups[kLength] > 0)
+				return WIN_VAL;
+			else
+			{
+				if (myTotal - theirTotal == 0)
+				{
+					if (player == 2)
+						return 1;
+					else
+						return -1;
+				}
+				
+				return myTotal - theirTotal;
+			}
+		}
+		else
+		{
+			//For different length groups for each player
+			int kLength = state.getkLength();
+			int[] myGroups = new int[kLength + 1];
+			int myGroupsLength = myGroups.length;
+			int[] theirGroups = new int[kLength + 1];
+			int theirGroupsLength = theirGroups.length;
+			
+			
+			int width = state.getWidth();
+			int height = state.getHeight();
+			int myTotal = 0;
+			int theirTotal = 0;
+
+			/*
+			 * Like with gravity on, we check groupings of spaces in every direction 
+			 * for each player.
+			 */
+			state.trackWindows();
+			byte them = (byte)(player == 1? 2 : 1);
+			for (int i = 1; i <= kLength; ++i)
+			{
+				myGroups[i] = state.openWindows(player, i);
+				theirGroups[i] = state.openWindows(them, i);
+			}
+			
+			/*
+			 * We now check for junctions (spaces that can be included in more 
+			 * than one grouping).
+			 */
+			//Check junctions
+			//do i have a junction
+			boolean iHaveJunc = false;
+			boolean iHaveJuncEmpty = false;
+			for (int i = 0; i < width; ++i)
+				for (int j = 0; j < height; ++j)
+				{
+					if (state.getSpace(i, j) == player)
+						iHaveJunc = ai.isJunction(state, i, j);
+					else if (state.getSpace(i, j) == 0)
+						iHaveJuncEmpty = ai.isJunction(state, i, j);
+				}
+			
+			if (iHaveJunc)
+				myTotal += 100;
+			else if (iHaveJuncEmpty)
+				myTotal += 50;
+			
+			//do they have a junction
+			boolean theyHaveJunc = false;
+			boolean theyHaveJuncEmpty = false;
+			for (int i = 0; i < width; ++i)
+				for (int j = 0; j < height; ++j)
+				{
+					if (state.getSpace(i, j) == (byte)(player == 1? 2 : 1))
+						theyHaveJunc = ai.isTheirJunction(state, i, j);
+					else if (state.getSpace(i, j) == 0)
+						theyHaveJuncEmpty = ai.isTheirJunction(state, i, j);
+				}
+			
+			if (theyHaveJunc)
+				theirTotal += 100;
+			else if (theyHaveJuncEmpty)
+				theirTotal += 50;
+
+			//get Total
+			//get my total
+			int scale = 1;
+			for (int i = 2; i < myGroupsLength; ++i)
+			{
+				myTotal += (myGroups[i] * scale);
+				++scale;
+			}
+
+			//get their total
+			scale = 1;
+			for (int i = 2; i < theirGroupsLength; ++i)
+			{
+				theirTotal += (theirGroups[i] * scale);
+				++scale;
+			}
+
+			if (theirGroups[kLength] > 0)
+				return LOSE_VAL;
+			else if (myGroups[kLength] > 0)
+				return WIN_VAL;
+			else
+			{
+				if (myTotal - theirTotal == 0)
+				{
+					if (player == 2)
+						return 1;
+					else
+						return -1;
+				}
+				
+				return myTotal - theirTotal;
+			}
+		}
+
+	}
+}
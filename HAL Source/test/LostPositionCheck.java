@@ -0,0 +1,154 @@
+import connectK.BoardModel;
+import java.awt.Point;
+import java.util.HashMap;
+import java.util.Random;
+
+/**
+ * Test harness, not part of the AI: asks getMove for a move in positions the AI
+ * cannot save, where the opponent has two winning spaces and only one can be
+ * blocked, and checks the move is legal and blocks one of them. Then it does the
+ * same for random endgames the exact solver proves lost, and checks the move puts
+ * the loss off as long as any move can, by a brute-force search of each position.
+ *
+ * Usage: java -cp <HAL classes>:<test classes> LostPositionCheck
+ */
+public class LostPositionCheck {
+
+	public static void main(String[] args)
+	{
+		int failures = 0;
+		//the opponent (2) has an open three on the bottom row, and the corner is taken
+		failures += check("7x6 k4 gravity", 7, 6, 4, true,
+				new int[][] {{0, 0}, {6, 0}, {0, 1}}, new int[][] {{2, 0}, {3, 0}, {4, 0}});
+		failures += check("8x8 k4", 8, 8, 4, false,
+				new int[][] {{0, 0}, {7, 7}, {0, 7}}, new int[][] {{2, 2}, {3, 2}, {4, 2}});
+		failures += check("9x7 k5", 9, 7, 5, false,
+				new int[][] {{0, 0}, {8, 6}, {0, 6}, {8, 0}}, new int[][] {{2, 3}, {3, 3}, {4, 3}, {5, 3}});
+		failures += check("11x11 k5", 11, 11, 5, false,
+				new int[][] {{0, 0}, {10, 10}, {0, 10}, {10, 0}}, new int[][] {{3, 5}, {4, 5}, {5, 5}, {6, 5}});
+		failures += checkEndgames("4x4 k3", 4, 4, 3, false);
+		failures += checkEndgames("5x5 k4", 5, 5, 4, false);
+		failures += checkEndgames("5x4 k4 gravity", 5, 4, 4, true);
+		if (failures > 0)
+			System.exit(1);
+	}
+
+	/**
+	 * Builds a position with the AI (player 1) to move and checks its move.
+	 * @param name name printed with the result
+	 * @param mine the AI's pieces, as {x, y}
+	 * @param theirs the opponent's pieces, as {x, y}
+	 * @return 1 if the move was illegal or did not block a winning space, otherwise 0
+	 */
+	@SuppressWarnings("deprecation")
+	static int check(String name, int width, int height, int k, boolean gravity, int[][] mine, int[][] theirs)
+	{
+		BoardModel state = BoardModel.newBoard(width, height, k, gravity);
+		for (int[] p : mine)
+			state = state.placePiece(new Point(p[0], p[1]), (byte) 1);
+		for (int[] p : theirs)
+			state = state.placePiece(new Point(p[0], p[1]), (byte) 2);
+		
+		HALAI ai = new HALAI((byte) 1, state);
+		Point move = ai.getMove(state.clone(), 500);
+		boolean legal = move != null && move.x >= 0 && move.x < width && move.y >= 0 && move.y < height
+				&& state.getSpace(move) == 0 && (!gravity || state.columnHeight(move.x) == move.y);
+		boolean blocks = legal && state.wouldWin(move.x, move.y, (byte) 2);
+		System.out.println(name + ": " + move + (legal ? blocks ? "" : " does not block FAILED" : " is illegal FAILED"));
+		return blocks ? 0 : 1;
+	}
+
+	/**
+	 * Plays random games to lost endgames for the side to move and checks the AI's move 
+	 * in each against the longest any move holds out.
+	 * @param name name printed with the result
+	 * @return number of positions where the move was illegal or lost sooner than it had to
+	 */
+	@SuppressWarnings("deprecation")
+	static int checkEndgames(String name, int width, int height, int k, boolean gravity)
+	{
+		Random random = new Random(5);
+		int failures = 0;
+		int checked = 0;
+		for (int game = 0; game < 2000 && checked < 100; ++game)
+		{
+			BoardModel state = BoardModel.newBoard(width, height, k, gravity);
+			byte turn = 1;
+			int empty = 6 + random.nextInt(5);
+			while (state.spacesLeft > empty && state.winner() == -1)
+			{
+				int x = random.nextInt(width);
+				int y = gravity ? state.columnHeight(x) : random.nextInt(height);
+				if (y >= height || state.getSpace(x, y) != 0)
+					continue;
+				state = state.placePiece(new Point(x, y), turn);
+				turn = (byte)(turn == 1 ? 2 : 1);
+			}
+			if (state.winner() != -1)
+				continue;
+			
+			HashMap<Long, Integer> memo = new HashMap<Long, Integer>();
+			if (outcome(state, turn, memo) >= 0)
+				continue;
+			int longest = Integer.MIN_VALUE;
+			for (int cell = 0; cell < width * height; ++cell)
+				if (playable(state, cell))
+					longest = Math.max(longest, after(state, cell, turn, memo));
+			
+			HALAI ai = new HALAI(turn, state);
+			Point move = ai.getMove(state.clone(), 2000);
+			int cell = move == null ? -1 : move.x * height + move.y;
+			boolean legal = move != null && move.x >= 0 && move.x < width && move.y >= 0 && move.y < height 
+					&& playable(state, cell);
+			int holds = legal ? after(state, cell, turn, memo) : Integer.MIN_VALUE;
+			if (holds != longest)
+			{
+				++failures;
+				System.out.println(name + ": " + move + (legal ? " loses in " + (100 + holds) 
+						+ " plies, not " + (100 + longest) : " is illegal") + " FAILED\n" + state);
+			}
+			++checked;
+		}
+		System.out.println(name + ": " + checked + " lost endgames, " + failures + " failed");
+		return failures;
+	}
+
+	private static boolean playable(BoardModel state, int cell)
+	{
+		int x = cell / state.getHeight();
+		int y = cell % state.getHeight();
+		return state.getSpace(x, y) == 0 && (!state.gravity || state.columnHeight(x) == y);
+	}
+
+	//value for side of playing cell: 100 - plies to a win, plies to a loss - 100, or 0 for a draw
+	private static int after(BoardModel state, int cell, byte side, HashMap<Long, Integer> memo)
+	{
+		int x = cell / state.getHeight();
+		int y = cell % state.getHeight();
+		if (state.wouldWin(x, y, side))
+			return 99;
+		state.makeMove(x, y, side);
+		int v = 0;
+		if (state.hasMovesLeft())
+		{
+			int reply = outcome(state, (byte)(side == 1 ? 2 : 1), memo);
+			v = reply > 0 ? -reply + 1 : reply < 0 ? -reply - 1 : 0;
+		}
+		state.unmakeMove();
+		return v;
+	}
+
+	//value of the position for side, to move, counted as in after
+	private static int outcome(BoardModel state, byte side, HashMap<Long, Integer> memo)
+	{
+		Integer known = memo.get(state.zobristKey());
+		if (known != null)
+			return known;
+		int best = Integer.MIN_VALUE;
+		for (int cell = 0; cell < state.getWidth() * state.getHeight(); ++cell)
+			if (playable(state, cell))
+				best = Math.max(best, after(state, cell, side, memo));
+		memo.put(state.zobristKey(), best);
+		return best;
+	}
+}